@@ -0,0 +1,165 @@
+package com.mushroomtech.app;
+
+// Online anomaly detection for the live temperature and humidity feed.
+//   - dropout: missing value (NaN) or no reading for longer than the dropout timeout
+//   - spike:   |value - EWMA mean| above SPIKE_Z EWMA standard deviations
+//   - drift:   two-sided CUSUM over the standardised residuals, which catches slow
+//              trends such as a failed heater or humidifier long before a threshold
+// State is a handful of doubles per channel; process() never allocates.
+public class AnomalyDetector {
+    
+    public static final int CHANNEL_TEMPERATURE = 0;
+    public static final int CHANNEL_HUMIDITY = 1;
+    
+    public static final int TYPE_DROPOUT = 0;
+    public static final int TYPE_SPIKE = 1;
+    public static final int TYPE_DRIFT_UP = 2;
+    public static final int TYPE_DRIFT_DOWN = 3;
+    
+    private static final double ALPHA = 0.05;          // EWMA weight, ~20-sample memory
+    private static final double SPIKE_Z = 4.0;
+    private static final double CUSUM_SLACK = 0.5;      // k, in standard deviations
+    private static final double CUSUM_THRESHOLD = 8.0;  // h, in standard deviations
+    private static final int WARM_UP_SAMPLES = 20;
+    private static final int LEVEL_SHIFT_SAMPLES = 3;
+    // DHT22 resolution; keeps z-scores sane when the signal is perfectly flat
+    private static final double MIN_STD_DEV = 0.1;
+    
+    public static final long DEFAULT_DROPOUT_TIMEOUT = 60 * 1000L;
+    
+    public interface Listener {
+        void onAnomaly(int channel, int type, long timestamp, double value, double score);
+    }
+    
+    private final Channel temperature = new Channel(CHANNEL_TEMPERATURE);
+    private final Channel humidity = new Channel(CHANNEL_HUMIDITY);
+    private final long dropoutTimeout;
+    private volatile Listener listener;
+    private long lastTimestamp = -1;
+    private boolean timedOut;
+    
+    public AnomalyDetector() {
+        this(DEFAULT_DROPOUT_TIMEOUT);
+    }
+    
+    public AnomalyDetector(long dropoutTimeout) {
+        this.dropoutTimeout = dropoutTimeout;
+    }
+    
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+    
+    public void process(EnvironmentalData data) {
+        process(data.timestamp, data.temperature, data.humidity);
+    }
+    
+    public synchronized void process(long timestamp, double temperatureValue, double humidityValue) {
+        lastTimestamp = timestamp;
+        timedOut = false;
+        temperature.process(timestamp, temperatureValue);
+        humidity.process(timestamp, humidityValue);
+    }
+    
+    // Call periodically; reports a dropout once when the feed has gone quiet
+    public synchronized void checkTimeout(long now) {
+        if (lastTimestamp >= 0 && !timedOut && now - lastTimestamp > dropoutTimeout) {
+            timedOut = true;
+            double silence = now - lastTimestamp;
+            emit(CHANNEL_TEMPERATURE, TYPE_DROPOUT, now, Double.NaN, silence);
+            emit(CHANNEL_HUMIDITY, TYPE_DROPOUT, now, Double.NaN, silence);
+        }
+    }
+    
+    public synchronized double getTemperatureBaseline() {
+        return temperature.mean;
+    }
+    
+    public synchronized double getHumidityBaseline() {
+        return humidity.mean;
+    }
+    
+    private void emit(int channel, int type, long timestamp, double value, double score) {
+        Listener current = listener;
+        if (current != null) {
+            current.onAnomaly(channel, type, timestamp, value, score);
+        }
+    }
+    
+    private class Channel {
+        private final int id;
+        private int samples;
+        private double mean;
+        private double variance;
+        private double cusumHigh;
+        private double cusumLow;
+        private int consecutiveSpikes;
+        private boolean droppedOut;
+        
+        Channel(int id) {
+            this.id = id;
+        }
+        
+        void process(long timestamp, double value) {
+            if (Double.isNaN(value)) {
+                if (!droppedOut) {
+                    droppedOut = true;
+                    emit(id, TYPE_DROPOUT, timestamp, value, 0);
+                }
+                return;
+            }
+            droppedOut = false;
+            
+            if (samples == 0) {
+                mean = value;
+                variance = 0;
+                samples = 1;
+                return;
+            }
+            
+            double stdDev = Math.max(Math.sqrt(variance), MIN_STD_DEV);
+            double residual = value - mean;
+            double z = residual / stdDev;
+            
+            if (samples >= WARM_UP_SAMPLES) {
+                if (Math.abs(z) > SPIKE_Z) {
+                    consecutiveSpikes++;
+                    if (consecutiveSpikes < LEVEL_SHIFT_SAMPLES) {
+                        emit(id, TYPE_SPIKE, timestamp, value, z);
+                        // Keep the outlier out of the baseline
+                        return;
+                    }
+                    // Persistent jump: accept it as the new level
+                    reseed(value);
+                    return;
+                }
+                consecutiveSpikes = 0;
+                
+                cusumHigh = Math.max(0, cusumHigh + z - CUSUM_SLACK);
+                cusumLow = Math.max(0, cusumLow - z - CUSUM_SLACK);
+                if (cusumHigh > CUSUM_THRESHOLD) {
+                    emit(id, TYPE_DRIFT_UP, timestamp, value, cusumHigh);
+                    cusumHigh = 0;
+                } else if (cusumLow > CUSUM_THRESHOLD) {
+                    emit(id, TYPE_DRIFT_DOWN, timestamp, value, cusumLow);
+                    cusumLow = 0;
+                }
+            }
+            
+            // Exponentially weighted mean and variance (West 1979)
+            double increment = ALPHA * residual;
+            mean += increment;
+            variance = (1 - ALPHA) * (variance + residual * increment);
+            samples++;
+        }
+        
+        private void reseed(double value) {
+            mean = value;
+            variance = 0;
+            samples = 1;
+            cusumHigh = 0;
+            cusumLow = 0;
+            consecutiveSpikes = 0;
+        }
+    }
+} 
\ No newline at end of file
@@ -0,0 +1,159 @@
+package com.mushroomtech.app;
+
+import android.util.Log;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+public class ApiService {
+    
+    private static final String TAG = "ApiService";
+    private static final String BASE_URL = "http://192.168.1.100:8080"; // Replace with your Raspberry Pi IP
+    private static final int TIMEOUT_SECONDS = 10;
+    
+    public EnvironmentalData getEnvironmentalStatus() throws Exception {
+        String response = makeGetRequest("/status");
+        return parseEnvironmentalData(response);
+    }
+    
+    public boolean controlRelay(String relayName, boolean state) throws Exception {
+        JSONObject requestBody = new JSONObject();
+        requestBody.put("relay", relayName);
+        requestBody.put("state", state);
+        
+        String response = makePostRequest("/control", requestBody.toString());
+        JSONObject jsonResponse = new JSONObject(response);
+        
+        return "success".equals(jsonResponse.optString("status"));
+    }
+    
+    public HistoricalData getHistoricalData(int hours) throws Exception {
+        // Parse straight off the socket so long ranges never sit in memory as text
+        return makeGetRequest("/history?hours=" + hours, HistoricalData::fromJson);
+    }
+    
+    public boolean updateThresholds(double tempMin, double tempMax, double humidityMin, double humidityMax) throws Exception {
+        JSONObject requestBody = new JSONObject();
+        requestBody.put("temp_min", tempMin);
+        requestBody.put("temp_max", tempMax);
+        requestBody.put("humidity_min", humidityMin);
+        requestBody.put("humidity_max", humidityMax);
+        
+        String response = makePostRequest("/thresholds", requestBody.toString());
+        JSONObject jsonResponse = new JSONObject(response);
+        
+        return "success".equals(jsonResponse.optString("status"));
+    }
+    
+    private String makeGetRequest(String endpoint) throws Exception {
+        return makeGetRequest(endpoint, this::readResponse);
+    }
+    
+    private <T> T makeGetRequest(String endpoint, ResponseHandler<T> handler) throws Exception {
+        URL url = new URL(BASE_URL + endpoint);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        
+        try {
+            connection.setRequestMethod("GET");
+            connection.setConnectTimeout((int) TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+            connection.setReadTimeout((int) TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+            connection.setRequestProperty("Accept", "application/json");
+            
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                try (Reader reader = new BufferedReader(
+                        new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+                    return handler.handle(reader);
+                }
+            } else {
+                throw new IOException("HTTP error code: " + responseCode);
+            }
+            
+        } finally {
+            connection.disconnect();
+        }
+    }
+    
+    private String makePostRequest(String endpoint, String requestBody) throws Exception {
+        URL url = new URL(BASE_URL + endpoint);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        
+        try {
+            connection.setRequestMethod("POST");
+            connection.setConnectTimeout((int) TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+            connection.setReadTimeout((int) TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setRequestProperty("Accept", "application/json");
+            connection.setDoOutput(true);
+            
+            // Write request body
+            try (OutputStream os = connection.getOutputStream()) {
+                byte[] input = requestBody.getBytes(StandardCharsets.UTF_8);
+                os.write(input, 0, input.length);
+            }
+            
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                return readResponse(connection);
+            } else {
+                throw new IOException("HTTP error code: " + responseCode);
+            }
+            
+        } finally {
+            connection.disconnect();
+        }
+    }
+    
+    private String readResponse(HttpURLConnection connection) throws IOException {
+        try (Reader reader = new BufferedReader(
+                new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+            return readResponse(reader);
+        }
+    }
+    
+    private String readResponse(Reader reader) throws IOException {
+        StringBuilder response = new StringBuilder();
+        char[] buffer = new char[4096];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            response.append(buffer, 0, read);
+        }
+        return response.toString();
+    }
+    
+    private EnvironmentalData parseEnvironmentalData(String jsonResponse) throws JSONException {
+        EnvironmentalData data = EnvironmentalData.fromRecord(ChannelRegistry.defaultDecoder().decode(new JSONObject(jsonResponse)));
+        data.timestamp = System.currentTimeMillis();
+        return data;
+    }
+    
+    // Method to test connection
+    public boolean testConnection() {
+        try {
+            makeGetRequest("/status");
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Connection test failed", e);
+            return false;
+        }
+    }
+    
+    // Method to set custom base URL (for different Pi IP addresses)
+    public void setBaseUrl(String baseUrl) {
+        // This would require making BASE_URL non-final and adding proper validation
+        // For now, users need to modify the BASE_URL constant directly
+        Log.i(TAG, "To change base URL, modify BASE_URL constant in ApiService.java");
+    }
+    
+    private interface ResponseHandler<T> {
+        T handle(Reader reader) throws IOException;
+    }
+} 
\ No newline at end of file
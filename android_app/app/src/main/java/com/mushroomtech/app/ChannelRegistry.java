@@ -0,0 +1,104 @@
+package com.mushroomtech.app;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The set of values decoded from a device_status snapshot. Adding a sensor is one register()
+// call here; compile() then turns the whole set into a SnapshotDecoder once, so decode cost
+// does not depend on how channels are looked up.
+public class ChannelRegistry {
+    
+    // Built-in channels are registered first, in this order, so their indices are constants
+    public static final int TEMPERATURE = 0;
+    public static final int HUMIDITY = 1;
+    public static final int LAST_READING = 2;
+    public static final int HEATER = 3;
+    public static final int HUMIDIFIER = 4;
+    public static final int WATER_PUMP = 5;
+    public static final int AQUARIUM_PUMP = 6;
+    public static final int TEMP_MIN = 7;
+    public static final int TEMP_MAX = 8;
+    public static final int HUMIDITY_MIN = 9;
+    public static final int HUMIDITY_MAX = 10;
+    public static final int ESP32_CONNECTED = 11;
+    public static final int ESP32_LAST_CONTACT = 12;
+    public static final int CO2 = 13;
+    public static final int SUBSTRATE_MOISTURE = 14;
+    public static final int CPU_TEMPERATURE = 15;
+    
+    private static ChannelRegistry defaultRegistry;
+    private static SnapshotDecoder defaultDecoder;
+    
+    private final List<SensorChannel> channels = new ArrayList<>();
+    private final Map<String, Integer> indices = new HashMap<>();
+    
+    // The app-wide registry; extra channels must be registered before the first decode
+    public static synchronized ChannelRegistry getDefault() {
+        if (defaultRegistry == null) {
+            defaultRegistry = createDefault();
+        }
+        return defaultRegistry;
+    }
+    
+    // Compiled once from getDefault() and shared by the Firebase and REST paths
+    public static synchronized SnapshotDecoder defaultDecoder() {
+        if (defaultDecoder == null) {
+            defaultDecoder = getDefault().compile();
+        }
+        return defaultDecoder;
+    }
+    
+    public static ChannelRegistry createDefault() {
+        ChannelRegistry registry = new ChannelRegistry();
+        // DHT22 limits; anything outside is a bad read
+        registry.register(SensorChannel.number("temperature", "°C", -40, 80, "sensor_data/temperature"));
+        registry.register(SensorChannel.number("humidity", "%", 0, 100, "sensor_data/humidity"));
+        registry.register(SensorChannel.text("last_reading", "sensor_data/last_reading"));
+        // The Pi writes relay_status; relay_states is the older name
+        registry.register(SensorChannel.flag("heater", "relay_status/heater", "relay_states/heater"));
+        registry.register(SensorChannel.flag("humidifier", "relay_status/humidifier", "relay_states/humidifier"));
+        registry.register(SensorChannel.flag("water_pump", "relay_status/water_pump", "relay_states/water_pump"));
+        registry.register(SensorChannel.flag("aquarium_pump", "relay_status/aquarium_pump", "relay_states/aquarium_pump"));
+        registry.register(SensorChannel.number("temp_min", "°C", -40, 80, "thresholds/temp_min", "thresholds/temperature_min"));
+        registry.register(SensorChannel.number("temp_max", "°C", -40, 80, "thresholds/temp_max", "thresholds/temperature_max"));
+        registry.register(SensorChannel.number("humidity_min", "%", 0, 100, "thresholds/humidity_min"));
+        registry.register(SensorChannel.number("humidity_max", "%", 0, 100, "thresholds/humidity_max"));
+        registry.register(SensorChannel.flag("esp32_connected", "esp32_status/connected"));
+        registry.register(SensorChannel.text("esp32_last_contact", "esp32_status/last_contact"));
+        // Not published by the Pi yet; decoded as soon as it is
+        registry.register(SensorChannel.number("co2", "ppm", 0, 10000, "sensor_data/co2"));
+        registry.register(SensorChannel.number("substrate_moisture", "%", 0, 100, "sensor_data/substrate_moisture"));
+        registry.register(SensorChannel.number("cpu_temperature", "°C", 0, 125, "system_info/cpu_temperature"));
+        return registry;
+    }
+    
+    // Returns the new channel's index
+    public int register(SensorChannel channel) {
+        if (indices.containsKey(channel.getName())) {
+            throw new IllegalArgumentException("Duplicate channel: " + channel.getName());
+        }
+        channels.add(channel);
+        indices.put(channel.getName(), channels.size() - 1);
+        return channels.size() - 1;
+    }
+    
+    public int size() {
+        return channels.size();
+    }
+    
+    public SensorChannel get(int index) {
+        return channels.get(index);
+    }
+    
+    // -1 when no channel has that name
+    public int indexOf(String name) {
+        Integer index = indices.get(name);
+        return index != null ? index : -1;
+    }
+    
+    public SnapshotDecoder compile() {
+        return new SnapshotDecoder(channels.toArray(new SensorChannel[0]));
+    }
+} 
\ No newline at end of file
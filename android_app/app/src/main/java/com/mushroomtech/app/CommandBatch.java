@@ -0,0 +1,85 @@
+package com.mushroomtech.app;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+// Relay and threshold changes for one or more devices, written by
+// FirebaseApiService.commit() as a single multi-path updateChildren so they land together.
+// Single commands are sent on their own; callers that want a burst to go out as one write
+// build a batch themselves. Setting the same relay twice keeps only the last state. Each device gets one command carrying all of its relays, written under its own
+// key in relay_control so commands never overwrite each other, and the Pi answers it with a
+// single command response.
+public class CommandBatch {
+    
+    private final Map<String, Map<String, Boolean>> relays = new LinkedHashMap<>();
+    private final Map<String, Map<String, Object>> thresholds = new LinkedHashMap<>();
+    
+    public CommandBatch setRelay(String deviceId, String relayName, boolean state) {
+        Map<String, Boolean> deviceRelays = relays.get(deviceId);
+        if (deviceRelays == null) {
+            deviceRelays = new LinkedHashMap<>();
+            relays.put(deviceId, deviceRelays);
+        }
+        // The Pi upper-cases names, so "heater" and "HEATER" are the same relay
+        deviceRelays.put(relayName.toLowerCase(Locale.US), state);
+        return this;
+    }
+    
+    public CommandBatch setThresholds(String deviceId, double tempMin, double tempMax,
+                                      double humidityMin, double humidityMax) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("temp_min", tempMin);
+        values.put("temp_max", tempMax);
+        values.put("humidity_min", humidityMin);
+        values.put("humidity_max", humidityMax);
+        thresholds.put(deviceId, values);
+        return this;
+    }
+    
+    public boolean isEmpty() {
+        return relays.isEmpty() && thresholds.isEmpty();
+    }
+    
+    public Set<String> getDeviceIds() {
+        Set<String> deviceIds = new LinkedHashSet<>(relays.keySet());
+        deviceIds.addAll(thresholds.keySet());
+        return deviceIds;
+    }
+    
+    // Number of relay changes left after coalescing
+    public int relayCount() {
+        int count = 0;
+        for (Map<String, Boolean> deviceRelays : relays.values()) {
+            count += deviceRelays.size();
+        }
+        return count;
+    }
+    
+    // Paths are relative to the database root. newCommandId should hand out time-ordered
+    // keys (Firebase push IDs); commandIds receives the one used per device, for matching
+    // the Pi's responses.
+    Map<String, Object> toUpdates(long timestamp, Supplier<String> newCommandId, Map<String, String> commandIds) {
+        Map<String, Object> updates = new HashMap<>();
+        for (Map.Entry<String, Map<String, Boolean>> entry : relays.entrySet()) {
+            String commandId = newCommandId.get();
+            commandIds.put(entry.getKey(), commandId);
+            
+            Map<String, Object> command = new HashMap<>();
+            command.put("relays", new HashMap<>(entry.getValue()));
+            command.put("command_id", commandId);
+            command.put("timestamp", timestamp);
+            updates.put("commands/" + entry.getKey() + "/relay_control/" + commandId, command);
+        }
+        for (Map.Entry<String, Map<String, Object>> entry : thresholds.entrySet()) {
+            Map<String, Object> values = new HashMap<>(entry.getValue());
+            values.put("timestamp", timestamp);
+            updates.put("commands/" + entry.getKey() + "/thresholds", values);
+        }
+        return updates;
+    }
+} 
\ No newline at end of file
@@ -0,0 +1,196 @@
+package com.mushroomtech.app;
+
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Matches the Pi's command_responses to the commands waiting for them. Command IDs are push
+// IDs, so they sort by creation time: one ChildEventListener on command_responses, ordered by
+// key and starting at the oldest command still waiting, sees every response this app cares
+// about and none of the older history. It is attached by the first command and detached once
+// nothing is waiting. A command is registered before it is written, so the Pi cannot answer
+// before anyone is listening, and commands in flight never wait on each other.
+//
+// Responses are deleted once read. That includes replies that arrive after their command
+// timed out, and any response whose push ID is old enough that no sender can still be
+// waiting for it.
+public class CommandResponseCorrelator {
+    
+    private static final String PUSH_CHARS = "-0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz";
+    
+    private final DatabaseReference responsesRef;
+    private final long timeoutSeconds;
+    // Keyed by command ID, so the first key is the oldest command still waiting
+    private final TreeMap<String, CompletableFuture<Boolean>> pending = new TreeMap<>();
+    // Timed out, but a late response is still expected for another timeout and cleaned up
+    private final TreeSet<String> expired = new TreeSet<>();
+    private Query query;
+    private String queryStart;
+    
+    private final ChildEventListener listener = new ChildEventListener() {
+        @Override
+        public void onChildAdded(DataSnapshot dataSnapshot, String previousChildName) {
+            resolve(dataSnapshot);
+        }
+        
+        @Override
+        public void onChildChanged(DataSnapshot dataSnapshot, String previousChildName) {
+            resolve(dataSnapshot);
+        }
+        
+        @Override
+        public void onChildRemoved(DataSnapshot dataSnapshot) {
+        }
+        
+        @Override
+        public void onChildMoved(DataSnapshot dataSnapshot, String previousChildName) {
+        }
+        
+        @Override
+        public void onCancelled(DatabaseError databaseError) {
+            // Firebase has already removed the listener; the next command re-attaches
+            List<CompletableFuture<Boolean>> failed;
+            synchronized (CommandResponseCorrelator.this) {
+                query = null;
+                queryStart = null;
+                failed = new ArrayList<>(pending.values());
+                pending.clear();
+                expired.clear();
+            }
+            Exception error = databaseError.toException();
+            for (CompletableFuture<Boolean> future : failed) {
+                future.completeExceptionally(error);
+            }
+        }
+    };
+    
+    public CommandResponseCorrelator(DatabaseReference responsesRef, long timeoutSeconds) {
+        this.responsesRef = responsesRef;
+        this.timeoutSeconds = timeoutSeconds;
+    }
+    
+    // Call before writing the command. Completes with the Pi's success flag, or fails on
+    // timeout.
+    public CompletableFuture<Boolean> expect(String commandId) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        synchronized (this) {
+            pending.put(commandId, future);
+            updateListener();
+        }
+        CompletableFuture.delayedExecutor(timeoutSeconds, TimeUnit.SECONDS).execute(() -> expire(commandId, future));
+        return future;
+    }
+    
+    // For a command whose write failed
+    public void fail(String commandId, Throwable error) {
+        CompletableFuture<Boolean> future;
+        synchronized (this) {
+            future = pending.remove(commandId);
+            updateListener();
+        }
+        if (future != null) {
+            future.completeExceptionally(error);
+        }
+    }
+    
+    public synchronized int pendingCount() {
+        return pending.size();
+    }
+    
+    public synchronized boolean isListening() {
+        return query != null;
+    }
+    
+    private void expire(String commandId, CompletableFuture<Boolean> future) {
+        synchronized (this) {
+            if (pending.get(commandId) != future) {
+                return;
+            }
+            pending.remove(commandId);
+            expired.add(commandId);
+        }
+        future.completeExceptionally(new Exception("Command response timeout"));
+        CompletableFuture.delayedExecutor(timeoutSeconds, TimeUnit.SECONDS).execute(() -> {
+            synchronized (this) {
+                if (expired.remove(commandId)) {
+                    updateListener();
+                }
+            }
+        });
+    }
+    
+    // Caller holds the lock. The query only ever widens while commands are in flight, so
+    // a command resolving does not re-attach; it is dropped when nothing is left.
+    private void updateListener() {
+        String first = pending.isEmpty() ? null : pending.firstKey();
+        if (!expired.isEmpty() && (first == null || expired.first().compareTo(first) < 0)) {
+            first = expired.first();
+        }
+        if (first == null) {
+            if (query != null) {
+                query.removeEventListener(listener);
+                query = null;
+                queryStart = null;
+            }
+            return;
+        }
+        if (query != null && queryStart.compareTo(first) <= 0) {
+            return;
+        }
+        if (query != null) {
+            query.removeEventListener(listener);
+        }
+        queryStart = first;
+        query = responsesRef.orderByKey().startAt(first);
+        query.addChildEventListener(listener);
+    }
+    
+    private void resolve(DataSnapshot dataSnapshot) {
+        String commandId = dataSnapshot.getKey();
+        CompletableFuture<Boolean> future;
+        boolean late;
+        synchronized (this) {
+            future = pending.remove(commandId);
+            late = future == null && expired.remove(commandId);
+            updateListener();
+        }
+        if (future != null) {
+            Boolean success = dataSnapshot.child("success").getValue(Boolean.class);
+            future.complete(success != null && success);
+        } else if (!late && !isAbandoned(commandId)) {
+            return; // Another client's command, still in flight
+        }
+        responsesRef.child(commandId).removeValue();
+    }
+    
+    // Its sender has given up on it and stopped listening for late replies
+    private boolean isAbandoned(String commandId) {
+        long created = pushIdTime(commandId);
+        return created > 0 && System.currentTimeMillis() - created > TimeUnit.SECONDS.toMillis(2 * timeoutSeconds);
+    }
+    
+    // Push IDs start with their creation time in milliseconds, 8 characters of 6 bits each;
+    // -1 for any other key
+    static long pushIdTime(String key) {
+        if (key == null || key.length() != 20) {
+            return -1;
+        }
+        long time = 0;
+        for (int i = 0; i < 8; i++) {
+            int digit = PUSH_CHARS.indexOf(key.charAt(i));
+            if (digit < 0) {
+                return -1;
+            }
+            time = time * 64 + digit;
+        }
+        return time;
+    }
+} 
\ No newline at end of file
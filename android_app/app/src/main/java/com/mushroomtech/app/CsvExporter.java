@@ -0,0 +1,152 @@
+package com.mushroomtech.app;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.zip.GZIPOutputStream;
+
+// Streams a SensorLog range to gzip-compressed CSV. The log is scanned one day at a time and
+// every row is formatted into the same reused buffer, so memory use does not grow with the
+// length of the range. The Pi's synced 10-minute history, when given, fills in the stretches
+// the on-device log did not see; where both have data the 5-second log wins.
+public class CsvExporter {
+    
+    private static final String HEADER = "timestamp,time,temperature,humidity,heater,humidifier,water_pump,aquarium_pump\n";
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long CHUNK = SensorRollups.DAY;
+    
+    public interface ProgressListener {
+        // Called after each chunk with the fraction of the time range done, 0..1
+        void onProgress(long rowsWritten, float fraction);
+    }
+    
+    private final SensorLog log;
+    private final SensorLog history;
+    private volatile boolean cancelled;
+    
+    public CsvExporter(SensorLog log) {
+        this(log, null);
+    }
+    
+    // history may be null
+    public CsvExporter(SensorLog log, SensorLog history) {
+        this.log = log;
+        this.history = history;
+    }
+    
+    public void cancel() {
+        cancelled = true;
+    }
+    
+    // Writes readings with from <= timestamp < to and closes the stream; returns the row count
+    public long export(long from, long to, OutputStream out, ProgressListener listener) throws IOException {
+        RowWriter rows;
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(out, BUFFER_SIZE), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            writer.write(HEADER);
+            rows = new RowWriter(writer);
+            HistoryMerger merged = new HistoryMerger(rows);
+            
+            // Skip the empty days before the first record instead of scanning them
+            long first = HistoryMerger.firstTimestamp(log, history);
+            long start = first > from ? first : from;
+            // Scanning holds the log lock, so release it between chunks for live appends
+            for (long chunkStart = start; chunkStart < to; chunkStart += CHUNK) {
+                if (cancelled) {
+                    throw new InterruptedIOException("Export cancelled");
+                }
+                long chunkEnd = Math.min(chunkStart + CHUNK, to);
+                merged.scanChunk(log, history, chunkStart, chunkEnd);
+                if (rows.error != null) {
+                    throw rows.error;
+                }
+                if (listener != null) {
+                    listener.onProgress(rows.count, (float) (chunkEnd - from) / (to - from));
+                }
+            }
+            merged.finish();
+            if (rows.error != null) {
+                throw rows.error;
+            }
+        }
+        return rows.count;
+    }
+    
+    private static class RowWriter implements SensorLog.RecordVisitor {
+        private final Writer writer;
+        private final StringBuilder line = new StringBuilder(128);
+        private final Calendar calendar = Calendar.getInstance();
+        private char[] chars = new char[128];
+        private long count;
+        private IOException error;
+        
+        RowWriter(Writer writer) {
+            this.writer = writer;
+        }
+        
+        @Override
+        public void visit(long timestamp, double temperature, double humidity, int relayMask) {
+            if (error != null) {
+                return;
+            }
+            line.setLength(0);
+            line.append(timestamp).append(',');
+            appendDateTime(timestamp);
+            line.append(',');
+            appendValue(temperature);
+            line.append(',');
+            appendValue(humidity);
+            for (int relay = 0; relay < EnvironmentalData.RELAY_COUNT; relay++) {
+                line.append(',').append((relayMask >> relay) & 1);
+            }
+            line.append('\n');
+            
+            int length = line.length();
+            if (length > chars.length) {
+                chars = new char[length];
+            }
+            line.getChars(0, length, chars, 0);
+            try {
+                writer.write(chars, 0, length);
+                count++;
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        
+        // Same "yyyy-MM-dd HH:mm:ss" local time the Pi's history API uses
+        private void appendDateTime(long timestamp) {
+            calendar.setTimeInMillis(timestamp);
+            line.append(calendar.get(Calendar.YEAR)).append('-');
+            appendTwoDigits(calendar.get(Calendar.MONTH) + 1);
+            line.append('-');
+            appendTwoDigits(calendar.get(Calendar.DAY_OF_MONTH));
+            line.append(' ');
+            appendTwoDigits(calendar.get(Calendar.HOUR_OF_DAY));
+            line.append(':');
+            appendTwoDigits(calendar.get(Calendar.MINUTE));
+            line.append(':');
+            appendTwoDigits(calendar.get(Calendar.SECOND));
+        }
+        
+        private void appendTwoDigits(int value) {
+            if (value < 10) {
+                line.append('0');
+            }
+            line.append(value);
+        }
+        
+        // Dropouts are left as empty fields
+        private void appendValue(double value) {
+            if (!Double.isNaN(value)) {
+                line.append(value);
+            }
+        }
+    }
+} 
\ No newline at end of file
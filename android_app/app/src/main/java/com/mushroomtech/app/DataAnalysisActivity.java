@@ -0,0 +1,760 @@
+package com.mushroomtech.app;
+
+import android.content.Intent;
+import android.graphics.Color;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.util.Log;
+import android.view.MotionEvent;
+import android.view.View;
+import android.text.method.ScrollingMovementMethod;
+import android.widget.Button;
+import android.widget.EditText;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+import android.widget.Toast;
+import androidx.appcompat.app.AppCompatActivity;
+import com.github.mikephil.charting.charts.LineChart;
+import com.github.mikephil.charting.components.XAxis;
+import com.github.mikephil.charting.components.YAxis;
+import com.github.mikephil.charting.data.Entry;
+import com.github.mikephil.charting.data.LineData;
+import com.github.mikephil.charting.data.LineDataSet;
+import com.github.mikephil.charting.formatter.ValueFormatter;
+import com.github.mikephil.charting.listener.ChartTouchListener;
+import com.github.mikephil.charting.listener.OnChartGestureListener;
+import com.google.android.material.floatingactionbutton.FloatingActionButton;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// History chart that only holds about one point per pixel for the visible range plus a
+// prefetch margin. Short ranges are drawn from raw live readings, longer ones from the
+// rollup tier that fits the viewport, and ranges older than that from Firebase history.
+public class DataAnalysisActivity extends AppCompatActivity {
+    
+    public static final String EXTRA_DEVICE_ID = "device_id";
+    
+    private static final String TAG = "DataAnalysisActivity";
+    private static final int REQUEST_EXPORT_DOCUMENT = 201;
+    
+    private static final long HISTORY_SPAN = 31 * SensorRollups.DAY;
+    private static final long INITIAL_SPAN = SensorRollups.DAY;
+    // Viewports up to this long are drawn from raw readings
+    private static final long RAW_SPAN_LIMIT = 6 * SensorRollups.HOUR;
+    private static final long RESOLUTION_RAW = 0;
+    // Loaded range is the visible range widened by this fraction of its length on each side
+    private static final double PREFETCH_MARGIN = 0.5;
+    // Zooming in further than this inside a loaded range reloads it at finer detail
+    private static final int MAX_ZOOM_WITHOUT_RELOAD = 4;
+    private static final long VIEWPORT_SETTLE_DELAY = 150;
+    private static final long LIVE_POLL_INTERVAL = 5000;
+    
+    private LineChart historyChart;
+    private TextView rangeLabel;
+    private TextView percentileSummary;
+    private TextView relaySummary;
+    private Button exportButton;
+    private ProgressBar exportProgress;
+    private EditText queryInput;
+    private Button queryButton;
+    private TextView queryResult;
+    private FloatingActionButton backFab;
+    
+    private FirebaseApiService firebaseApiService;
+    private HistorySyncEngine historySyncEngine;
+    private String deviceId;
+    private Handler mainHandler;
+    private ExecutorService loadExecutor;
+    // Exports and queries against the on-device log
+    private ExecutorService logExecutor;
+    
+    private LineData lineData;
+    private LineDataSet temperatureSet;
+    private LineDataSet humiditySet;
+    private final SimpleDateFormat hourFormat = new SimpleDateFormat("HH:mm", Locale.getDefault());
+    private final SimpleDateFormat dayFormat = new SimpleDateFormat("MMM d", Locale.getDefault());
+    private final SimpleDateFormat rangeFormat = new SimpleDateFormat("MMM d HH:mm", Locale.getDefault());
+    private final SimpleDateFormat fileFormat = new SimpleDateFormat("yyyyMMdd_HHmm", Locale.getDefault());
+    
+    // MPAndroidChart x values are floats, so they are seconds since baseTime
+    private long baseTime;
+    // Range and resolution of the last requested load; main thread only
+    private long loadedFrom;
+    private long loadedTo;
+    private long loadedResolution = -1;
+    // Written on the main thread, read by loads in flight to drop superseded work
+    private volatile int loadGeneration;
+    private int percentileGeneration;
+    private String loadedSource = "";
+    private boolean showingRaw = false;
+    private long lastPlottedTimestamp;
+    
+    // Firebase rows from olderFrom up to the synced store's first row; only touched on
+    // loadExecutor
+    private HistoricalData olderHistory;
+    private long olderFrom = Long.MAX_VALUE;
+    
+    // Range picked when the export document was requested
+    private long exportFrom;
+    private long exportTo;
+    private volatile CsvExporter exporter;
+    
+    private final Runnable viewportCheck = this::checkViewport;
+    
+    private final Runnable livePoll = new Runnable() {
+        @Override
+        public void run() {
+            appendLiveReadings();
+            mainHandler.postDelayed(this, LIVE_POLL_INTERVAL);
+        }
+    };
+    
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_data_analysis);
+        
+        initializeViews();
+        setupServices();
+        setupChart();
+        
+        syncHistoryTail();
+        
+        exportButton.setOnClickListener(v -> startExport());
+        queryButton.setOnClickListener(v -> runQuery());
+        backFab.setOnClickListener(v -> finish());
+    }
+    
+    private void initializeViews() {
+        historyChart = findViewById(R.id.historyChart);
+        rangeLabel = findViewById(R.id.rangeLabel);
+        percentileSummary = findViewById(R.id.percentileSummary);
+        relaySummary = findViewById(R.id.relaySummary);
+        exportButton = findViewById(R.id.exportButton);
+        exportProgress = findViewById(R.id.exportProgress);
+        queryInput = findViewById(R.id.queryInput);
+        queryButton = findViewById(R.id.queryButton);
+        queryResult = findViewById(R.id.queryResult);
+        queryResult.setMovementMethod(new ScrollingMovementMethod());
+        backFab = findViewById(R.id.backFab);
+    }
+    
+    private void setupServices() {
+        firebaseApiService = MushroomTechApp.from(this).getFirebaseApiService();
+        historySyncEngine = MushroomTechApp.from(this).getHistorySyncEngine();
+        deviceId = getIntent().getStringExtra(EXTRA_DEVICE_ID);
+        mainHandler = new Handler(getMainLooper());
+        // Single thread, so a newer viewport load never races an older one
+        loadExecutor = Executors.newSingleThreadExecutor();
+        logExecutor = Executors.newSingleThreadExecutor();
+    }
+    
+    private void setupChart() {
+        long now = System.currentTimeMillis();
+        baseTime = now - HISTORY_SPAN;
+        
+        temperatureSet = createDataSet("Temperature (°C)", Color.parseColor("#FF7043"), YAxis.AxisDependency.LEFT);
+        humiditySet = createDataSet("Humidity (%)", Color.parseColor("#4FC3F7"), YAxis.AxisDependency.RIGHT);
+        lineData = new LineData(temperatureSet, humiditySet);
+        
+        historyChart.getDescription().setEnabled(false);
+        historyChart.getLegend().setTextColor(Color.WHITE);
+        historyChart.setDragEnabled(true);
+        historyChart.setScaleXEnabled(true);
+        historyChart.setScaleYEnabled(false);
+        historyChart.setAutoScaleMinMaxEnabled(true);
+        
+        // Fixed axis bounds let the user pan over the whole history, not just what is loaded
+        XAxis xAxis = historyChart.getXAxis();
+        xAxis.setPosition(XAxis.XAxisPosition.BOTTOM);
+        xAxis.setTextColor(Color.WHITE);
+        xAxis.setAxisMinimum(0f);
+        xAxis.setAxisMaximum(toX(now));
+        xAxis.setGranularity(60f);
+        xAxis.setValueFormatter(new ValueFormatter() {
+            @Override
+            public String getFormattedValue(float value) {
+                Date date = new Date(toTime(value));
+                long span = toTime(historyChart.getHighestVisibleX()) - toTime(historyChart.getLowestVisibleX());
+                return span <= 2 * SensorRollups.DAY ? hourFormat.format(date) : dayFormat.format(date);
+            }
+        });
+        historyChart.getAxisLeft().setTextColor(Color.parseColor("#FF7043"));
+        historyChart.getAxisRight().setTextColor(Color.parseColor("#4FC3F7"));
+        
+        historyChart.setOnChartGestureListener(new OnChartGestureListener() {
+            @Override
+            public void onChartGestureStart(MotionEvent me, ChartTouchListener.ChartGesture lastPerformedGesture) {
+            }
+            
+            @Override
+            public void onChartGestureEnd(MotionEvent me, ChartTouchListener.ChartGesture lastPerformedGesture) {
+                scheduleViewportCheck();
+            }
+            
+            @Override
+            public void onChartLongPressed(MotionEvent me) {
+            }
+            
+            @Override
+            public void onChartDoubleTapped(MotionEvent me) {
+                scheduleViewportCheck();
+            }
+            
+            @Override
+            public void onChartSingleTapped(MotionEvent me) {
+            }
+            
+            @Override
+            public void onChartFling(MotionEvent me1, MotionEvent me2, float velocityX, float velocityY) {
+                scheduleViewportCheck();
+            }
+            
+            @Override
+            public void onChartScale(MotionEvent me, float scaleX, float scaleY) {
+                scheduleViewportCheck();
+            }
+            
+            @Override
+            public void onChartTranslate(MotionEvent me, float dX, float dY) {
+                scheduleViewportCheck();
+            }
+        });
+        
+        historyChart.setData(lineData);
+        
+        // Zooming needs the chart to be laid out
+        historyChart.post(() -> {
+            historyChart.zoom((float) (HISTORY_SPAN / INITIAL_SPAN), 1f, 0f, 0f);
+            historyChart.moveViewToX(toX(now - INITIAL_SPAN));
+            checkViewport();
+        });
+    }
+    
+    // The chart draws from the synced store straight away; whatever the Pi wrote since the
+    // last sync is pulled in behind it and the viewport reloaded if anything arrived
+    private void syncHistoryTail() {
+        CompletableFuture<String> device = deviceId != null
+                ? CompletableFuture.completedFuture(deviceId)
+                : firebaseApiService.resolveDeviceId();
+        device.thenCompose(historySyncEngine::sync).whenComplete((rows, error) -> {
+            if (error != null) {
+                Log.w(TAG, "History sync failed", error);
+            } else if (rows > 0) {
+                mainHandler.post(() -> {
+                    if (!isFinishing()) {
+                        loadedResolution = -1;
+                        checkViewport();
+                    }
+                });
+            }
+        });
+    }
+    
+    private LineDataSet createDataSet(String label, int color, YAxis.AxisDependency axis) {
+        LineDataSet dataSet = new LineDataSet(new ArrayList<>(), label);
+        dataSet.setAxisDependency(axis);
+        dataSet.setColor(color);
+        dataSet.setLineWidth(1.5f);
+        dataSet.setDrawCircles(false);
+        dataSet.setDrawValues(false);
+        dataSet.setHighlightEnabled(false);
+        return dataSet;
+    }
+    
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mainHandler.postDelayed(livePoll, LIVE_POLL_INTERVAL);
+    }
+    
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mainHandler.removeCallbacks(livePoll);
+    }
+    
+    // Gestures fire every frame; only look at the viewport once it has settled
+    private void scheduleViewportCheck() {
+        mainHandler.removeCallbacks(viewportCheck);
+        mainHandler.postDelayed(viewportCheck, VIEWPORT_SETTLE_DELAY);
+    }
+    
+    private void checkViewport() {
+        long from = toTime(historyChart.getLowestVisibleX());
+        long to = toTime(historyChart.getHighestVisibleX());
+        long span = Math.max(to - from, SensorRollups.MINUTE);
+        int points = pointBudget();
+        long resolution = span <= RAW_SPAN_LIMIT
+                ? RESOLUTION_RAW
+                : firebaseApiService.getRollups().selectTier(from, to, points).getBucketMillis();
+        
+        boolean covered = from >= loadedFrom && to <= loadedTo;
+        boolean tooCoarse = (loadedTo - loadedFrom) / span > MAX_ZOOM_WITHOUT_RELOAD;
+        if (resolution != loadedResolution || !covered || tooCoarse) {
+            long margin = (long) (span * PREFETCH_MARGIN);
+            load(from - margin, to + margin, resolution, points);
+        }
+        updateRangeLabel(from, to);
+        updatePercentiles(from, to);
+    }
+    
+    // Merging a month of hourly sketches is a few hundred merges, so keep it off the main thread
+    private void updatePercentiles(long from, long to) {
+        int generation = ++percentileGeneration;
+        SensorRollups rollups = firebaseApiService.getRollups();
+        CompletableFuture.supplyAsync(() -> {
+            QuantileSketch temperature = rollups.temperatureSketch(from, to);
+            QuantileSketch humidity = rollups.humiditySketch(from, to);
+            if (temperature.getCount() == 0 || humidity.getCount() == 0) {
+                return "";
+            }
+            return String.format(Locale.getDefault(), "p5 / p50 / p95   🌡️ %.1f / %.1f / %.1f°C   💧 %.0f / %.0f / %.0f%%",
+                    temperature.quantile(0.05), temperature.quantile(0.5), temperature.quantile(0.95),
+                    humidity.quantile(0.05), humidity.quantile(0.5), humidity.quantile(0.95));
+        }, loadExecutor).thenAccept(text -> mainHandler.post(() -> {
+            if (generation == percentileGeneration) {
+                percentileSummary.setText(text);
+            }
+        }));
+    }
+    
+    // One point per pixel across the visible range and both prefetch margins
+    private int pointBudget() {
+        int width = Math.max((int) historyChart.getViewPortHandler().contentWidth(), 100);
+        return (int) (width * (1 + 2 * PREFETCH_MARGIN));
+    }
+    
+    private void load(long from, long to, long resolution, int points) {
+        int generation = ++loadGeneration;
+        loadedFrom = from;
+        loadedTo = to;
+        loadedResolution = resolution;
+        
+        buildFrame(from, to, resolution, points, generation)
+                .whenComplete((frame, error) -> mainHandler.post(() -> {
+                    if (generation != loadGeneration || isFinishing()) {
+                        return; // A newer viewport superseded this load
+                    }
+                    if (error != null || frame == null) {
+                        if (error != null) {
+                            Log.e(TAG, "Failed to load history", error);
+                        }
+                        loadedResolution = -1;
+                        loadedSource = "History unavailable";
+                    } else {
+                        applyFrame(frame);
+                    }
+                    updateRangeLabel(toTime(historyChart.getLowestVisibleX()), toTime(historyChart.getHighestVisibleX()));
+                }));
+    }
+    
+    // In-memory sources are read on loadExecutor; history reads are chained on the futures
+    // of the store and Firebase, so the load thread never waits on I/O. Completes with null
+    // for a load that a newer viewport superseded.
+    private CompletableFuture<Frame> buildFrame(long from, long to, long resolution, int points, int generation) {
+        return CompletableFuture.supplyAsync(() -> resolution == RESOLUTION_RAW
+                ? buildRawFrame(from, to, points)
+                : buildRollupFrame(from, to, resolution), loadExecutor)
+                .thenCompose(frame -> frame != null || generation != loadGeneration
+                        ? CompletableFuture.completedFuture(frame)
+                        : buildHistoryFrame(from, to, points, generation));
+    }
+    
+    private Frame buildRawFrame(long from, long to, int points) {
+        ReadingRingBuffer readings = firebaseApiService.getLiveReadings();
+        long[] timestamps;
+        double[] temperatures;
+        double[] humidities;
+        // Hold the buffer lock so a concurrent append cannot shift the indices
+        synchronized (readings) {
+            if (readings.isEmpty() || readings.timestampAt(0) > from) {
+                return null;
+            }
+            int start = readings.indexOfTime(from);
+            int end = readings.indexOfTime(to);
+            timestamps = new long[end - start];
+            temperatures = new double[timestamps.length];
+            humidities = new double[timestamps.length];
+            readings.copyRange(start, end, timestamps, temperatures, humidities, null);
+        }
+        // Live appends continue from the newest plotted reading, or from 'from' if none was
+        long lastTimestamp = timestamps.length > 0 ? timestamps[timestamps.length - 1] : from;
+        return downsampledFrame(timestamps, temperatures, humidities, 0, timestamps.length, points,
+                "Raw readings", true, lastTimestamp);
+    }
+    
+    private Frame buildRollupFrame(long from, long to, long resolution) {
+        SensorRollups.Tier tier = null;
+        for (SensorRollups.Tier candidate : firebaseApiService.getRollups().getTiers()) {
+            if (candidate.getBucketMillis() == resolution) {
+                tier = candidate;
+            }
+        }
+        if (tier == null) {
+            return null;
+        }
+        
+        synchronized (tier) {
+            if (!tier.covers(from)) {
+                return null;
+            }
+            int start = tier.indexOfTime(from);
+            int end = Math.min(tier.indexOfTime(to) + 1, tier.size());
+            List<Entry> temperatureEntries = new ArrayList<>(Math.max(end - start, 0));
+            List<Entry> humidityEntries = new ArrayList<>(Math.max(end - start, 0));
+            for (int i = start; i < end; i++) {
+                float x = toX(tier.bucketStartAt(i));
+                double temperature = tier.temperatureMeanAt(i);
+                double humidity = tier.humidityMeanAt(i);
+                if (!Double.isNaN(temperature)) {
+                    temperatureEntries.add(new Entry(x, (float) temperature));
+                }
+                if (!Double.isNaN(humidity)) {
+                    humidityEntries.add(new Entry(x, (float) humidity));
+                }
+            }
+            return new Frame(temperatureEntries, humidityEntries, describeResolution(resolution), false, 0);
+        }
+    }
+    
+    // Synced history from the on-device store. Firebase is asked only for the stretch before
+    // the store's first row, and that is kept for later loads.
+    private CompletableFuture<Frame> buildHistoryFrame(long from, long to, int points, int generation) {
+        String device = currentDeviceId();
+        if (device == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return historySyncEngine.readLocal(device, from, to).thenComposeAsync(local -> {
+            int size = local.getDataPointCount();
+            if (generation != loadGeneration) {
+                return CompletableFuture.completedFuture(null);
+            }
+            if (size > 0 && local.getStartTime() - from <= SensorQuery.HISTORY_SAMPLE_GAP) {
+                return CompletableFuture.completedFuture(downsampledFrame(local.getTimestamps(),
+                        local.getTemperatures(), local.getHumidities(), 0, size, points, "Synced history", false, 0));
+            }
+            return fetchOlderHistory(device, from).thenApplyAsync(older -> {
+                if (generation != loadGeneration) {
+                    return null;
+                }
+                // The fetched rows all predate the store, so they go first
+                HistoricalData merged = new HistoricalData();
+                long[] timestamps = older.getTimestamps();
+                long localStart = size > 0 ? local.getStartTime() : to;
+                for (int i = lowerBound(timestamps, older.getDataPointCount(), from);
+                     i < older.getDataPointCount() && timestamps[i] < Math.min(to, localStart); i++) {
+                    merged.add(timestamps[i], older.getTemperatures()[i], older.getHumidities()[i],
+                            older.getRelayMasks()[i]);
+                }
+                for (int i = 0; i < size; i++) {
+                    merged.add(local.getTimestamps()[i], local.getTemperatures()[i], local.getHumidities()[i],
+                            local.getRelayMasks()[i]);
+                }
+                merged.finish();
+                return downsampledFrame(merged.getTimestamps(), merged.getTemperatures(), merged.getHumidities(),
+                        0, merged.getDataPointCount(), points, "Firebase history", false, 0);
+            }, loadExecutor);
+        }, loadExecutor);
+    }
+    
+    // Runs on loadExecutor, which owns the cached rows
+    private CompletableFuture<HistoricalData> fetchOlderHistory(String device, long from) {
+        if (olderHistory != null && from >= olderFrom) {
+            return CompletableFuture.completedFuture(olderHistory);
+        }
+        return historySyncEngine.fetchBefore(device, from).thenApplyAsync(rows -> {
+            if (olderHistory == null || from < olderFrom) {
+                olderHistory = rows;
+                olderFrom = from;
+            }
+            return rows;
+        }, loadExecutor);
+    }
+    
+    private Frame downsampledFrame(long[] timestamps, double[] temperatures, double[] humidities, int from, int to,
+                                   int points, String source, boolean raw, long lastTimestamp) {
+        Downsampler.Series temperature = Downsampler.downsample(timestamps, temperatures, from, to, points,
+                Downsampler.Mode.LTTB);
+        Downsampler.Series humidity = Downsampler.downsample(timestamps, humidities, from, to, points,
+                Downsampler.Mode.LTTB);
+        return new Frame(temperature.toEntries(baseTime), humidity.toEntries(baseTime), source, raw, lastTimestamp);
+    }
+    
+    private void applyFrame(Frame frame) {
+        temperatureSet.setValues(frame.temperatureEntries);
+        humiditySet.setValues(frame.humidityEntries);
+        loadedSource = frame.source;
+        showingRaw = frame.raw;
+        lastPlottedTimestamp = frame.lastTimestamp;
+        refreshChart();
+    }
+    
+    // Live readings are appended to the raw series in place instead of reloading the range
+    private void appendLiveReadings() {
+        long now = System.currentTimeMillis();
+        XAxis xAxis = historyChart.getXAxis();
+        boolean following = historyChart.getHighestVisibleX() >= xAxis.getAxisMaximum() - 1f;
+        float visibleRange = historyChart.getVisibleXRange();
+        xAxis.setAxisMaximum(toX(now));
+        
+        if (showingRaw && loadedResolution == RESOLUTION_RAW) {
+            ReadingRingBuffer readings = firebaseApiService.getLiveReadings();
+            synchronized (readings) {
+                for (int i = readings.indexOfTime(lastPlottedTimestamp + 1); i < readings.size(); i++) {
+                    long timestamp = readings.timestampAt(i);
+                    float x = toX(timestamp);
+                    double temperature = readings.temperatureAt(i);
+                    double humidity = readings.humidityAt(i);
+                    if (!Double.isNaN(temperature)) {
+                        temperatureSet.addEntry(new Entry(x, (float) temperature));
+                    }
+                    if (!Double.isNaN(humidity)) {
+                        humiditySet.addEntry(new Entry(x, (float) humidity));
+                    }
+                    lastPlottedTimestamp = timestamp;
+                }
+            }
+            loadedTo = Math.max(loadedTo, lastPlottedTimestamp);
+        }
+        
+        refreshChart();
+        if (following) {
+            // Keep the live edge in view when the user is looking at it
+            historyChart.moveViewToX(toX(now) - visibleRange);
+        }
+    }
+    
+    private void startExport() {
+        exportFrom = toTime(historyChart.getLowestVisibleX());
+        exportTo = toTime(historyChart.getHighestVisibleX());
+        
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("application/gzip");
+        intent.putExtra(Intent.EXTRA_TITLE, "mushroomtech_" + fileFormat.format(new Date(exportFrom))
+                + "_" + fileFormat.format(new Date(exportTo)) + ".csv.gz");
+        startActivityForResult(intent, REQUEST_EXPORT_DOCUMENT);
+    }
+    
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == REQUEST_EXPORT_DOCUMENT && resultCode == RESULT_OK && data != null && data.getData() != null) {
+            exportToDocument(data.getData(), exportFrom, exportTo);
+        }
+    }
+    
+    private void exportToDocument(Uri uri, long from, long to) {
+        exportButton.setEnabled(false);
+        exportProgress.setProgress(0);
+        exportProgress.setVisibility(View.VISIBLE);
+        
+        logExecutor.execute(() -> {
+            String message;
+            try {
+                SensorLog log = openSensorLog();
+                SensorLog history = openHistoryStore();
+                OutputStream out = getContentResolver().openOutputStream(uri);
+                if (out == null) {
+                    throw new IOException("Cannot open " + uri);
+                }
+                exporter = new CsvExporter(log, history);
+                long rows = exporter.export(from, to, out, (rowsWritten, fraction) ->
+                        mainHandler.post(() -> exportProgress.setProgress((int) (fraction * 100))));
+                message = "Exported " + rows + " readings";
+            } catch (IOException e) {
+                Log.e(TAG, "Export failed", e);
+                message = "Export failed: " + e.getMessage();
+            } finally {
+                exporter = null;
+            }
+            
+            String result = message;
+            mainHandler.post(() -> {
+                exportProgress.setVisibility(View.GONE);
+                exportButton.setEnabled(true);
+                Toast.makeText(this, result, Toast.LENGTH_SHORT).show();
+            });
+        });
+    }
+    
+    // Queries without a between/last clause run over the visible range. The query visits the
+    // live log straight from its scan, with synced history filling in what the log lacks.
+    private void runQuery() {
+        SensorQuery query;
+        try {
+            query = SensorQuery.parse(queryInput.getText().toString());
+        } catch (IllegalArgumentException e) {
+            showQueryResult(e.getMessage());
+            return;
+        }
+        long from = query.hasRange() ? query.getFrom() : toTime(historyChart.getLowestVisibleX());
+        long to = query.hasRange() ? query.getTo() : toTime(historyChart.getHighestVisibleX());
+        
+        queryButton.setEnabled(false);
+        logExecutor.execute(() -> {
+            String text;
+            try {
+                SensorLog log = openSensorLog();
+                SensorLog history = openHistoryStore();
+                long started = System.nanoTime();
+                SensorQuery.Execution execution = query.newExecution();
+                HistoryMerger merged = new HistoryMerger(execution.visitor(SensorQuery.LIVE_SAMPLE_GAP),
+                        execution.visitor(SensorQuery.HISTORY_SAMPLE_GAP));
+                long first = HistoryMerger.firstTimestamp(log, history);
+                // A day at a time, so live appends are not held off for the whole range
+                for (long chunkStart = Math.max(from, first); first >= 0 && chunkStart < to;
+                     chunkStart += SensorRollups.DAY) {
+                    merged.scanChunk(log, history, chunkStart, Math.min(chunkStart + SensorRollups.DAY, to));
+                }
+                merged.finish();
+                SensorQuery.Result result = execution.finish();
+                text = result.format() + "(" + (System.nanoTime() - started) / 1000000 + " ms)";
+            } catch (IOException | IllegalArgumentException e) {
+                Log.e(TAG, "Query failed", e);
+                text = "Query failed: " + e.getMessage();
+            }
+            
+            String message = text;
+            mainHandler.post(() -> {
+                queryButton.setEnabled(true);
+                showQueryResult(message);
+            });
+        });
+    }
+    
+    private void showQueryResult(String text) {
+        queryResult.setText(text);
+        queryResult.setVisibility(View.VISIBLE);
+    }
+    
+    // The app's own log, shared with the appender; never closed here. Runs on logExecutor.
+    private SensorLog openSensorLog() throws IOException {
+        try {
+            return MushroomTechApp.from(this).getSensorLog().join();
+        } catch (CompletionException e) {
+            throw new IOException("Sensor log unavailable", e.getCause());
+        }
+    }
+    
+    private String currentDeviceId() {
+        return deviceId != null ? deviceId : firebaseApiService.getDeviceId();
+    }
+    
+    // Synced Firebase history for the device, or null when there is none to merge
+    private SensorLog openHistoryStore() {
+        String device = currentDeviceId();
+        if (device == null) {
+            return null;
+        }
+        try {
+            return MushroomTechApp.from(this).getHistorySyncEngine().getStore(device).join();
+        } catch (CompletionException e) {
+            Log.w(TAG, "Synced history unavailable", e.getCause());
+            return null;
+        }
+    }
+    
+    private void refreshChart() {
+        lineData.notifyDataChanged();
+        historyChart.notifyDataSetChanged();
+        historyChart.invalidate();
+    }
+    
+    private void updateRangeLabel(long from, long to) {
+        rangeLabel.setText(loadedSource + "  •  " + rangeFormat.format(new Date(from))
+                + " – " + rangeFormat.format(new Date(to)));
+        updateRelaySummary(from, to);
+    }
+    
+    // Run-length lookups, so this is cheap enough to redo on every viewport change
+    private void updateRelaySummary(long from, long to) {
+        RelayTimeline timeline = firebaseApiService.getRelayTimeline();
+        relaySummary.setText(describeRelay("🔥 Heater", timeline, EnvironmentalData.RELAY_HEATER, from, to)
+                + "\n" + describeRelay("💧 Pump", timeline, EnvironmentalData.RELAY_WATER_PUMP, from, to));
+    }
+    
+    private String describeRelay(String name, RelayTimeline timeline, int relay, long from, long to) {
+        long minutes = timeline.onMillis(relay, from, to) / SensorRollups.MINUTE;
+        return String.format(Locale.getDefault(), "%s: %dh %02dm on (%.0f%%), %d cycles, %d short, %.2f kWh",
+                name, minutes / 60, minutes % 60, timeline.dutyCycle(relay, from, to) * 100,
+                timeline.cycleCount(relay, from, to),
+                timeline.shortCycleCount(relay, from, to, RelayTimeline.DEFAULT_SHORT_CYCLE),
+                timeline.energyKwh(relay, from, to));
+    }
+    
+    private String describeResolution(long resolution) {
+        if (resolution >= SensorRollups.DAY) {
+            return "Daily averages";
+        } else if (resolution >= SensorRollups.HOUR) {
+            return "Hourly averages";
+        }
+        return (resolution / SensorRollups.MINUTE) + "-minute averages";
+    }
+    
+    private float toX(long timestamp) {
+        return (timestamp - baseTime) / 1000f;
+    }
+    
+    private long toTime(float x) {
+        return baseTime + (long) (x * 1000);
+    }
+    
+    // First index in [0, size) whose timestamp is >= the given time
+    private static int lowerBound(long[] timestamps, int size, long timestamp) {
+        int index = Arrays.binarySearch(timestamps, 0, size, timestamp);
+        if (index < 0) {
+            return -index - 1;
+        }
+        while (index > 0 && timestamps[index - 1] == timestamp) {
+            index--;
+        }
+        return index;
+    }
+    
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mainHandler.removeCallbacks(viewportCheck);
+        mainHandler.removeCallbacks(livePoll);
+        if (loadExecutor != null) {
+            loadExecutor.shutdown();
+        }
+        CsvExporter running = exporter;
+        if (running != null) {
+            running.cancel();
+        }
+        if (logExecutor != null) {
+            logExecutor.shutdown();
+        }
+    }
+    
+    private static class Frame {
+        final List<Entry> temperatureEntries;
+        final List<Entry> humidityEntries;
+        final String source;
+        final boolean raw;
+        final long lastTimestamp;
+        
+        Frame(List<Entry> temperatureEntries, List<Entry> humidityEntries, String source, boolean raw,
+              long lastTimestamp) {
+            this.temperatureEntries = temperatureEntries;
+            this.humidityEntries = humidityEntries;
+            this.source = source;
+            this.raw = raw;
+            this.lastTimestamp = lastTimestamp;
+        }
+    }
+} 
\ No newline at end of file
@@ -0,0 +1,217 @@
+package com.mushroomtech.app;
+
+import com.github.mikephil.charting.data.Entry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+// Reduces a history column to roughly one point per horizontal pixel before it is
+// handed to MPAndroidChart. NaN values (sensor dropouts) are ignored.
+public class Downsampler {
+    
+    public enum Mode {
+        // Largest-Triangle-Three-Buckets: keeps the visual shape with one point per pixel
+        LTTB,
+        // Min and max of every 2-pixel bucket: guarantees every spike is drawn
+        MIN_MAX
+    }
+    
+    public static class Series {
+        public final long[] timestamps;
+        public final double[] values;
+        public final int size;
+        
+        Series(long[] timestamps, double[] values, int size) {
+            this.timestamps = timestamps;
+            this.values = values;
+            this.size = size;
+        }
+        
+        // MPAndroidChart uses float x values, so times are seconds relative to baseTime
+        public List<Entry> toEntries(long baseTime) {
+            List<Entry> entries = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                entries.add(new Entry((timestamps[i] - baseTime) / 1000f, (float) values[i]));
+            }
+            return entries;
+        }
+    }
+    
+    public static CompletableFuture<Series> downsampleAsync(long[] timestamps, double[] values, int from, int to,
+                                                            int pixelWidth, Mode mode, Executor executor) {
+        return CompletableFuture.supplyAsync(
+                () -> downsample(timestamps, values, from, to, pixelWidth, mode), executor);
+    }
+    
+    public static Series downsample(long[] timestamps, double[] values, int from, int to, int pixelWidth, Mode mode) {
+        if (from < 0 || to > timestamps.length || to > values.length || from > to) {
+            throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ")");
+        }
+        int width = Math.max(pixelWidth, 3);
+        long[] outTimestamps = new long[Math.min(width, to - from)];
+        double[] outValues = new double[outTimestamps.length];
+        
+        int count;
+        if (mode == Mode.MIN_MAX) {
+            count = minMax(timestamps, values, from, to, width / 2, outTimestamps, outValues);
+        } else {
+            count = lttb(timestamps, values, from, to, width, outTimestamps, outValues);
+        }
+        return new Series(outTimestamps, outValues, count);
+    }
+    
+    // Writes at most `threshold` points into the output arrays and returns the count
+    public static int lttb(long[] timestamps, double[] values, int from, int to, int threshold,
+                           long[] outTimestamps, double[] outValues) {
+        int length = to - from;
+        if (threshold >= length || threshold < 3) {
+            return copyValid(timestamps, values, from, to, outTimestamps, outValues);
+        }
+        
+        int out = 0;
+        int selected = firstValid(values, from, to);
+        if (selected < 0) {
+            return 0;
+        }
+        outTimestamps[out] = timestamps[selected];
+        outValues[out] = values[selected];
+        out++;
+        
+        // The first and last points are fixed; the rest is split into threshold - 2 buckets
+        double bucketSize = (double) (length - 2) / (threshold - 2);
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            int bucketStart = from + 1 + (int) (bucket * bucketSize);
+            int bucketEnd = Math.min(from + 1 + (int) ((bucket + 1) * bucketSize), to - 1);
+            
+            // Average of the next bucket is the third triangle vertex
+            int nextStart = bucketEnd;
+            int nextEnd = Math.min(from + 1 + (int) ((bucket + 2) * bucketSize), to);
+            double avgX = 0;
+            double avgY = 0;
+            int avgCount = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                if (!Double.isNaN(values[i])) {
+                    avgX += timestamps[i];
+                    avgY += values[i];
+                    avgCount++;
+                }
+            }
+            if (avgCount == 0) {
+                int last = lastValid(values, from, to);
+                avgX = timestamps[last];
+                avgY = values[last];
+            } else {
+                avgX /= avgCount;
+                avgY /= avgCount;
+            }
+            
+            double pointX = timestamps[selected];
+            double pointY = values[selected];
+            double maxArea = -1;
+            int next = -1;
+            for (int i = bucketStart; i < bucketEnd; i++) {
+                if (Double.isNaN(values[i])) {
+                    continue;
+                }
+                double area = Math.abs((pointX - avgX) * (values[i] - pointY)
+                        - (pointX - timestamps[i]) * (avgY - pointY));
+                if (area > maxArea) {
+                    maxArea = area;
+                    next = i;
+                }
+            }
+            if (next >= 0) {
+                outTimestamps[out] = timestamps[next];
+                outValues[out] = values[next];
+                out++;
+                selected = next;
+            }
+        }
+        
+        int last = lastValid(values, from, to);
+        if (last > selected) {
+            outTimestamps[out] = timestamps[last];
+            outValues[out] = values[last];
+            out++;
+        }
+        return out;
+    }
+    
+    // Emits the min and max of each bucket in time order, at most 2 * buckets points
+    public static int minMax(long[] timestamps, double[] values, int from, int to, int buckets,
+                             long[] outTimestamps, double[] outValues) {
+        int length = to - from;
+        if (buckets <= 0 || buckets * 2 >= length) {
+            return copyValid(timestamps, values, from, to, outTimestamps, outValues);
+        }
+        
+        int out = 0;
+        double bucketSize = (double) length / buckets;
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            int bucketStart = from + (int) (bucket * bucketSize);
+            int bucketEnd = Math.min(from + (int) ((bucket + 1) * bucketSize), to);
+            
+            int minIndex = -1;
+            int maxIndex = -1;
+            for (int i = bucketStart; i < bucketEnd; i++) {
+                double value = values[i];
+                if (Double.isNaN(value)) {
+                    continue;
+                }
+                if (minIndex < 0 || value < values[minIndex]) {
+                    minIndex = i;
+                }
+                if (maxIndex < 0 || value > values[maxIndex]) {
+                    maxIndex = i;
+                }
+            }
+            if (minIndex < 0) {
+                continue;
+            }
+            
+            int first = Math.min(minIndex, maxIndex);
+            int second = Math.max(minIndex, maxIndex);
+            outTimestamps[out] = timestamps[first];
+            outValues[out] = values[first];
+            out++;
+            if (second != first) {
+                outTimestamps[out] = timestamps[second];
+                outValues[out] = values[second];
+                out++;
+            }
+        }
+        return out;
+    }
+    
+    private static int copyValid(long[] timestamps, double[] values, int from, int to,
+                                 long[] outTimestamps, double[] outValues) {
+        int out = 0;
+        for (int i = from; i < to && out < outTimestamps.length; i++) {
+            if (!Double.isNaN(values[i])) {
+                outTimestamps[out] = timestamps[i];
+                outValues[out] = values[i];
+                out++;
+            }
+        }
+        return out;
+    }
+    
+    private static int firstValid(double[] values, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!Double.isNaN(values[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private static int lastValid(double[] values, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (!Double.isNaN(values[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+} 
\ No newline at end of file
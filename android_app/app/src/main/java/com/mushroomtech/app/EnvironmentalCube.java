@@ -0,0 +1,140 @@
+package com.mushroomtech.app;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+// Aggregate cube over room x day-of-week x hour-of-day x relay state, updated in O(1) per
+// reading. Each room is 7 * 24 * 16 cells of count / sum / sum of squares per channel,
+// about 100 KB, so a heatmap of any slice is a sum over at most 16 cells per square and
+// never touches history.
+public class EnvironmentalCube {
+    
+    public static final int DAYS = 7;
+    public static final int HOURS = 24;
+    public static final int RELAY_STATES = 1 << EnvironmentalData.RELAY_COUNT;
+    public static final int SQUARES = DAYS * HOURS;
+    
+    public static final int CHANNEL_TEMPERATURE = 0;
+    public static final int CHANNEL_HUMIDITY = 1;
+    
+    private final Map<String, Room> rooms = new HashMap<>();
+    private final TimeZone timeZone = TimeZone.getDefault();
+    
+    public void add(String room, EnvironmentalData data) {
+        add(room, data.timestamp, data.temperature, data.humidity, data.getRelayMask());
+    }
+    
+    public synchronized void add(String room, long timestamp, double temperature, double humidity, int relayMask) {
+        Room cells = rooms.get(room);
+        if (cells == null) {
+            cells = new Room();
+            rooms.put(room, cells);
+        }
+        // Local time, including DST, so "7 am" means the grow room's 7 am all year
+        long local = timestamp + timeZone.getOffset(timestamp);
+        long day = Math.floorDiv(local, SensorRollups.DAY);
+        int hour = (int) (Math.floorMod(local, SensorRollups.DAY) / SensorRollups.HOUR);
+        // Epoch day 0 was a Thursday; 0 = Monday
+        int dayOfWeek = (int) Math.floorMod(day + 3, (long) DAYS);
+        int cell = ((dayOfWeek * HOURS + hour) << EnvironmentalData.RELAY_COUNT) | (relayMask & (RELAY_STATES - 1));
+        cells.temperature.add(cell, temperature);
+        cells.humidity.add(cell, humidity);
+    }
+    
+    public void addAll(String room, HistoricalData history) {
+        long[] timestamps = history.getTimestamps();
+        double[] temperatures = history.getTemperatures();
+        double[] humidities = history.getHumidities();
+        byte[] relayMasks = history.getRelayMasks();
+        for (int i = 0; i < history.getDataPointCount(); i++) {
+            add(room, timestamps[i], temperatures[i], humidities[i], relayMasks[i]);
+        }
+    }
+    
+    // Heatmap of one channel: SQUARES means indexed dayOfWeek * HOURS + hour (NaN where no
+    // readings), over readings whose relay mask satisfies (mask & relayMask) == relayState.
+    // relayMask 0 selects every state; RELAY_HUMIDIFIER / RELAY_HUMIDIFIER selects
+    // "humidifier on" regardless of the other relays.
+    public synchronized double[] heatmap(String room, int channel, int relayMask, int relayState) {
+        double[] means = new double[SQUARES];
+        Room cells = rooms.get(room);
+        Channel data = cells == null ? null : channel == CHANNEL_TEMPERATURE ? cells.temperature : cells.humidity;
+        for (int square = 0; square < SQUARES; square++) {
+            long count = 0;
+            double sum = 0;
+            if (data != null) {
+                int base = square << EnvironmentalData.RELAY_COUNT;
+                for (int state = 0; state < RELAY_STATES; state++) {
+                    if ((state & relayMask) == relayState) {
+                        count += data.counts[base | state];
+                        sum += data.sums[base | state];
+                    }
+                }
+            }
+            means[square] = count > 0 ? sum / count : Double.NaN;
+        }
+        return means;
+    }
+    
+    // Mean, standard deviation and count of one square for a relay state filter as above
+    public synchronized double mean(String room, int channel, int dayOfWeek, int hour, int relayMask, int relayState) {
+        double[] moments = moments(room, channel, dayOfWeek, hour, relayMask, relayState);
+        return moments[0] > 0 ? moments[1] / moments[0] : Double.NaN;
+    }
+    
+    public synchronized double stdDev(String room, int channel, int dayOfWeek, int hour, int relayMask, int relayState) {
+        double[] moments = moments(room, channel, dayOfWeek, hour, relayMask, relayState);
+        if (moments[0] == 0) {
+            return Double.NaN;
+        }
+        double mean = moments[1] / moments[0];
+        return Math.sqrt(Math.max(0, moments[2] / moments[0] - mean * mean));
+    }
+    
+    public synchronized long count(String room, int channel, int dayOfWeek, int hour, int relayMask, int relayState) {
+        return (long) moments(room, channel, dayOfWeek, hour, relayMask, relayState)[0];
+    }
+    
+    public synchronized void clear(String room) {
+        rooms.remove(room);
+    }
+    
+    private double[] moments(String room, int channel, int dayOfWeek, int hour, int relayMask, int relayState) {
+        double[] moments = new double[3];
+        Room cells = rooms.get(room);
+        if (cells == null) {
+            return moments;
+        }
+        Channel data = channel == CHANNEL_TEMPERATURE ? cells.temperature : cells.humidity;
+        int base = (dayOfWeek * HOURS + hour) << EnvironmentalData.RELAY_COUNT;
+        for (int state = 0; state < RELAY_STATES; state++) {
+            if ((state & relayMask) == relayState) {
+                moments[0] += data.counts[base | state];
+                moments[1] += data.sums[base | state];
+                moments[2] += data.squares[base | state];
+            }
+        }
+        return moments;
+    }
+    
+    private static class Room {
+        final Channel temperature = new Channel();
+        final Channel humidity = new Channel();
+    }
+    
+    private static class Channel {
+        final int[] counts = new int[SQUARES * RELAY_STATES];
+        final double[] sums = new double[SQUARES * RELAY_STATES];
+        final double[] squares = new double[SQUARES * RELAY_STATES];
+        
+        void add(int cell, double value) {
+            if (Double.isNaN(value)) {
+                return;
+            }
+            counts[cell]++;
+            sums[cell] += value;
+            squares[cell] += value * value;
+        }
+    }
+} 
\ No newline at end of file
@@ -2,6 +2,13 @@ package com.mushroomtech.app;
 
 public class EnvironmentalData {
     
+    // Relay bit positions used by the packed relay masks
+    public static final int RELAY_HEATER = 1;
+    public static final int RELAY_HUMIDIFIER = 1 << 1;
+    public static final int RELAY_WATER_PUMP = 1 << 2;
+    public static final int RELAY_AQUARIUM_PUMP = 1 << 3;
+    public static final int RELAY_COUNT = 4;
+    
     // Sensor readings
     public double temperature;
     public double humidity;
@@ -24,6 +31,37 @@ public class EnvironmentalData {
     public boolean esp32Connected;
     public String esp32LastContact;
     
+    // Every decoded channel, including ones without a field here (CO2, substrate moisture, ...)
+    public SensorRecord channels;
+    
+    public static EnvironmentalData fromRecord(SensorRecord record) {
+        EnvironmentalData data = new EnvironmentalData();
+        data.channels = record;
+        // NaN marks a dropout so it is not mistaken for a real 0.0 reading
+        data.temperature = record.getValue(ChannelRegistry.TEMPERATURE);
+        data.humidity = record.getValue(ChannelRegistry.HUMIDITY);
+        data.lastReading = record.getText(ChannelRegistry.LAST_READING);
+        
+        data.heaterStatus = record.getFlag(ChannelRegistry.HEATER);
+        data.humidifierStatus = record.getFlag(ChannelRegistry.HUMIDIFIER);
+        data.waterPumpStatus = record.getFlag(ChannelRegistry.WATER_PUMP);
+        data.aquariumPumpStatus = record.getFlag(ChannelRegistry.AQUARIUM_PUMP);
+        
+        data.tempMin = record.getValue(ChannelRegistry.TEMP_MIN, 0);
+        data.tempMax = record.getValue(ChannelRegistry.TEMP_MAX, 0);
+        data.humidityMin = record.getValue(ChannelRegistry.HUMIDITY_MIN, 0);
+        data.humidityMax = record.getValue(ChannelRegistry.HUMIDITY_MAX, 0);
+        
+        data.esp32Connected = record.getFlag(ChannelRegistry.ESP32_CONNECTED);
+        data.esp32LastContact = record.getText(ChannelRegistry.ESP32_LAST_CONTACT);
+        return data;
+    }
+    
+    // NaN when the channel is missing from this update or not registered
+    public double getChannelValue(int channel) {
+        return channels != null && channel >= 0 && channel < channels.size() ? channels.getValue(channel) : Double.NaN;
+    }
+    
     // Calculated properties
     public boolean isTemperatureOptimal() {
         return temperature >= tempMin && temperature <= tempMax;
@@ -62,6 +100,15 @@ public class EnvironmentalData {
         return count;
     }
     
+    public int getRelayMask() {
+        int mask = 0;
+        if (heaterStatus) mask |= RELAY_HEATER;
+        if (humidifierStatus) mask |= RELAY_HUMIDIFIER;
+        if (waterPumpStatus) mask |= RELAY_WATER_PUMP;
+        if (aquariumPumpStatus) mask |= RELAY_AQUARIUM_PUMP;
+        return mask;
+    }
+    
     public String getSystemStatus() {
         if (getActiveRelayCount() == 0) {
             return "STANDBY";
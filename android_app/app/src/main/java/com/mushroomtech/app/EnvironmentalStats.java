@@ -0,0 +1,51 @@
+package com.mushroomtech.app;
+
+// 5 min / 1 h / 24 h sliding-window statistics over the live reading stream
+public class EnvironmentalStats {
+    
+    public enum Window {
+        FIVE_MINUTES(5 * SensorRollups.MINUTE),
+        ONE_HOUR(SensorRollups.HOUR),
+        ONE_DAY(SensorRollups.DAY);
+        
+        public final long millis;
+        
+        Window(long millis) {
+            this.millis = millis;
+        }
+    }
+    
+    // Sized for readings no closer than 2 s apart; faster bursts shrink the window
+    private static final long MIN_SAMPLE_INTERVAL = 2000;
+    
+    private final SlidingWindowStats[] windows;
+    
+    public EnvironmentalStats() {
+        Window[] values = Window.values();
+        windows = new SlidingWindowStats[values.length];
+        for (int i = 0; i < values.length; i++) {
+            windows[i] = new SlidingWindowStats(values[i].millis, (int) (values[i].millis / MIN_SAMPLE_INTERVAL));
+        }
+    }
+    
+    public void add(EnvironmentalData data) {
+        for (SlidingWindowStats window : windows) {
+            window.add(data.timestamp, data.temperature, data.humidity);
+        }
+    }
+    
+    public SlidingWindowStats get(Window window) {
+        return windows[window.ordinal()];
+    }
+    
+    // Uses the 5-minute mean so a single noisy DHT22 read does not flip the status
+    public boolean isTemperatureOptimal(double tempMin, double tempMax) {
+        double mean = get(Window.FIVE_MINUTES).getTemperatureMean();
+        return !Double.isNaN(mean) && mean >= tempMin && mean <= tempMax;
+    }
+    
+    public boolean isHumidityOptimal(double humidityMin, double humidityMax) {
+        double mean = get(Window.FIVE_MINUTES).getHumidityMean();
+        return !Double.isNaN(mean) && mean >= humidityMin && mean <= humidityMax;
+    }
+} 
\ No newline at end of file
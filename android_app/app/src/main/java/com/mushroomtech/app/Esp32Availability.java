@@ -0,0 +1,152 @@
+package com.mushroomtech.app;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+
+// Interval index of ESP32 availability per room. Each room keeps two sorted interval lists:
+// when the app was watching the status, and when the ESP32 was offline. Offline periods are
+// backdated to the ESP32's last contact, since the Pi only reports a disconnect 2 minutes
+// after the last packet. Uptime, MTBF and gap lists over any range are binary searches over
+// a few longs per dropout.
+public class Esp32Availability {
+    
+    // Status updates further apart than this end the observed run (app or Pi offline)
+    private static final long MAX_OBSERVATION_GAP = 5 * SensorRollups.MINUTE;
+    
+    private final Map<String, Room> rooms = new HashMap<>();
+    private final Calendar calendar = Calendar.getInstance();
+    
+    public void add(String room, EnvironmentalData data) {
+        long lastContact;
+        synchronized (this) {
+            // The Pi writes datetime.isoformat() in its local time
+            lastContact = HistoricalData.parseTimestamp(data.esp32LastContact, calendar);
+        }
+        add(room, data.timestamp, data.esp32Connected, lastContact);
+    }
+    
+    // lastContact is -1 when unknown
+    public synchronized void add(String room, long timestamp, boolean connected, long lastContact) {
+        Room state = rooms.get(room);
+        if (state == null) {
+            state = new Room();
+            rooms.put(room, state);
+        }
+        state.add(timestamp, connected, lastContact);
+    }
+    
+    public synchronized boolean isOnlineAt(String room, long timestamp) {
+        Room state = rooms.get(room);
+        return state != null && state.observed.contains(timestamp) && !state.offline.contains(timestamp);
+    }
+    
+    // Milliseconds of [from, to) during which the status was being observed
+    public synchronized long observedMillis(String room, long from, long to) {
+        Room state = rooms.get(room);
+        return state == null ? 0 : state.observed.coveredMillis(from, to);
+    }
+    
+    public synchronized long offlineMillis(String room, long from, long to) {
+        Room state = rooms.get(room);
+        return state == null ? 0 : state.offline.coveredMillis(from, to);
+    }
+    
+    // Online fraction of the observed part of [from, to); NaN when nothing was observed
+    public synchronized double uptime(String room, long from, long to) {
+        long observed = observedMillis(room, from, to);
+        if (observed == 0) {
+            return Double.NaN;
+        }
+        return (double) (observed - offlineMillis(room, from, to)) / observed;
+    }
+    
+    // Dropouts that started within [from, to)
+    public synchronized int dropoutCount(String room, long from, long to) {
+        Room state = rooms.get(room);
+        return state == null ? 0 : state.offline.startCount(from, to);
+    }
+    
+    // Observed online time per dropout in [from, to); -1 when there were no dropouts
+    public synchronized long meanTimeBetweenDropouts(String room, long from, long to) {
+        int dropouts = dropoutCount(room, from, to);
+        if (dropouts == 0) {
+            return -1;
+        }
+        return (observedMillis(room, from, to) - offlineMillis(room, from, to)) / dropouts;
+    }
+    
+    // Offline periods overlapping [from, to), clipped to the range
+    public synchronized Gaps gaps(String room, long from, long to) {
+        Room state = rooms.get(room);
+        if (state == null) {
+            return new Gaps(0);
+        }
+        IntervalIndex offline = state.offline;
+        int first = offline.firstOverlapping(from);
+        int last = offline.lowerBound(to);
+        Gaps gaps = new Gaps(Math.max(0, last - first));
+        for (int i = first; i < last; i++) {
+            gaps.starts[i - first] = Math.max(offline.startAt(i), from);
+            gaps.ends[i - first] = Math.min(offline.endAt(i), to);
+        }
+        return gaps;
+    }
+    
+    public static class Gaps {
+        public final long[] starts;
+        public final long[] ends;
+        
+        Gaps(int size) {
+            starts = new long[size];
+            ends = new long[size];
+        }
+        
+        public int size() {
+            return starts.length;
+        }
+    }
+    
+    private static class Room {
+        final IntervalIndex observed = new IntervalIndex(16);
+        final IntervalIndex offline = new IntervalIndex(16);
+        long lastObservation = Long.MIN_VALUE;
+        
+        void add(long timestamp, boolean connected, long lastContact) {
+            if (timestamp < lastObservation) {
+                return;
+            }
+            boolean continuous = lastObservation != Long.MIN_VALUE && timestamp - lastObservation <= MAX_OBSERVATION_GAP;
+            if (continuous) {
+                observed.extendTo(timestamp);
+            } else {
+                // Whatever was open ended at the last observation
+                observed.close();
+                offline.close();
+                observed.open(timestamp);
+            }
+            
+            if (!connected) {
+                if (offline.isOpen()) {
+                    offline.extendTo(timestamp);
+                } else {
+                    // Backdate to the last packet, but not before this observed run or
+                    // the previous dropout
+                    long start = lastContact >= 0 && lastContact < timestamp ? lastContact : timestamp;
+                    start = Math.max(start, observed.startAt(observed.size() - 1));
+                    if (offline.size() > 0) {
+                        start = Math.max(start, offline.endAt(offline.size() - 1));
+                    }
+                    offline.open(start);
+                    offline.extendTo(timestamp);
+                }
+            } else if (offline.isOpen()) {
+                // Back online since the contact that flipped the flag
+                long end = lastContact >= 0 && lastContact < timestamp ? lastContact : timestamp;
+                offline.extendTo(Math.max(end, offline.startAt(offline.size() - 1)));
+                offline.close();
+            }
+            lastObservation = timestamp;
+        }
+    }
+} 
\ No newline at end of file
@@ -1,72 +1,149 @@
 package com.mushroomtech.app;
 
+import android.content.Context;
+import android.content.SharedPreferences;
 import android.util.Log;
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
 import com.google.firebase.database.ValueEventListener;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class FirebaseApiService {
     
     private static final String TAG = "FirebaseApiService";
     private static final int TIMEOUT_SECONDS = 10;
     
-    private DatabaseReference databaseRef;
-    private String raspberryPiDeviceId;
+    // Shared across instances so readings survive Activity recreation
+    private static final ReadingRingBuffer liveReadings = new ReadingRingBuffer();
+    private static final SensorRollups rollups = new SensorRollups();
+    private static final EnvironmentalStats liveStats = new EnvironmentalStats();
+    private static final AnomalyDetector anomalyDetector = new AnomalyDetector();
+    private static final HoltWintersForecaster forecaster = new HoltWintersForecaster();
+    private static final RelayTimeline relayTimeline = new RelayTimeline();
+    private static final EnvironmentalCube cube = new EnvironmentalCube();
+    private static final Esp32Availability availability = new Esp32Availability();
+    private static final WaterLevelChannel waterLevel = new WaterLevelChannel();
     
-    public FirebaseApiService() {
-        // Initialize Firebase Database
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        databaseRef = database.getReference();
+    private static final String PREFS_NAME = "firebase_repository";
+    private static final String KEY_PI_DEVICE = "raspberry_pi_device_id";
+    private static final String KEY_ESP32_DEVICE = "esp32_device_id";
+    
+    private final DatabaseReference databaseRef;
+    private final SharedPreferences prefs;
+    private CompletableFuture<String> deviceIdFuture;
+    private volatile String raspberryPiDeviceId;
+    private volatile String esp32DeviceId;
+    private final ListenerMultiplexer subscriptions;
+    private final CommandResponseCorrelator responseCorrelator;
+    private final Map<EnvironmentalDataListener, List<ListenerMultiplexer.Subscription>> realTimeSubscriptions = new HashMap<>();
+    private final Map<String, RoomState> rooms = new HashMap<>();
+    private volatile Consumer<EnvironmentalData> readingSink;
+    
+    // Created once per process by MushroomTechApp; use MushroomTechApp.from(context)
+    FirebaseApiService(Context context) {
+        databaseRef = FirebaseDatabase.getInstance().getReference();
+        subscriptions = new ListenerMultiplexer(databaseRef);
+        responseCorrelator = new CommandResponseCorrelator(databaseRef.child("command_responses"), TIMEOUT_SECONDS);
+        prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
         
-        // Find Raspberry Pi device ID
-        findRaspberryPiDevice();
+        // A remembered device ID skips the scan of the whole devices node
+        raspberryPiDeviceId = prefs.getString(KEY_PI_DEVICE, null);
+        esp32DeviceId = prefs.getString(KEY_ESP32_DEVICE, null);
+        if (raspberryPiDeviceId != null) {
+            deviceIdFuture = CompletableFuture.completedFuture(raspberryPiDeviceId);
+        } else {
+            deviceIdFuture = findRaspberryPiDevice();
+        }
+    }
+    
+    // Completes with the Pi's device ID; calls made before discovery finishes wait for it
+    // instead of failing. A failed discovery is retried on the next call.
+    public synchronized CompletableFuture<String> resolveDeviceId() {
+        if (deviceIdFuture.isCompletedExceptionally()) {
+            deviceIdFuture = findRaspberryPiDevice();
+        }
+        return deviceIdFuture;
     }
     
-    private void findRaspberryPiDevice() {
+    // Drops a remembered ID whose status node has gone, so the next call rediscovers
+    private synchronized void forgetDevice(String deviceId) {
+        if (deviceId.equals(raspberryPiDeviceId)) {
+            Log.w(TAG, "Device " + deviceId + " has no status, rediscovering");
+            raspberryPiDeviceId = null;
+            esp32DeviceId = null;
+            prefs.edit().remove(KEY_PI_DEVICE).remove(KEY_ESP32_DEVICE).apply();
+            deviceIdFuture = findRaspberryPiDevice();
+        }
+    }
+    
+    private CompletableFuture<String> findRaspberryPiDevice() {
+        CompletableFuture<String> future = new CompletableFuture<>();
         databaseRef.child("devices").addListenerForSingleValueEvent(new ValueEventListener() {
             @Override
             public void onDataChange(DataSnapshot dataSnapshot) {
+                String piId = null;
+                String esp32Id = null;
                 for (DataSnapshot deviceSnapshot : dataSnapshot.getChildren()) {
                     String deviceType = deviceSnapshot.child("device_type").getValue(String.class);
-                    if ("raspberry_pi".equals(deviceType)) {
-                        raspberryPiDeviceId = deviceSnapshot.getKey();
-                        Log.i(TAG, "Found Raspberry Pi device: " + raspberryPiDeviceId);
-                        break;
+                    if ("raspberry_pi".equals(deviceType) && piId == null) {
+                        piId = deviceSnapshot.getKey();
+                        Log.i(TAG, "Found Raspberry Pi device: " + piId);
+                    } else if ("esp32_water_monitor".equals(deviceType) && esp32Id == null) {
+                        esp32Id = deviceSnapshot.getKey();
+                        Log.i(TAG, "Found ESP32 water monitor: " + esp32Id);
                     }
                 }
                 
-                if (raspberryPiDeviceId == null) {
+                if (piId == null) {
                     Log.w(TAG, "No Raspberry Pi device found in Firebase");
+                    future.completeExceptionally(new Exception("Raspberry Pi device not found"));
+                    return;
                 }
+                raspberryPiDeviceId = piId;
+                esp32DeviceId = esp32Id;
+                prefs.edit().putString(KEY_PI_DEVICE, piId).putString(KEY_ESP32_DEVICE, esp32Id).apply();
+                future.complete(piId);
             }
             
             @Override
             public void onCancelled(DatabaseError databaseError) {
                 Log.e(TAG, "Failed to find Raspberry Pi device", databaseError.toException());
+                future.completeExceptionally(databaseError.toException());
             }
         });
+        
+        CompletableFuture.delayedExecutor(TIMEOUT_SECONDS, TimeUnit.SECONDS).execute(() -> {
+            if (!future.isDone()) {
+                future.completeExceptionally(new Exception("Device discovery timeout"));
+            }
+        });
+        return future;
     }
     
     public CompletableFuture<EnvironmentalData> getEnvironmentalStatus() {
+        return resolveDeviceId().thenCompose(this::getEnvironmentalStatus);
+    }
+    
+    private CompletableFuture<EnvironmentalData> getEnvironmentalStatus(String deviceId) {
         CompletableFuture<EnvironmentalData> future = new CompletableFuture<>();
-        
-        if (raspberryPiDeviceId == null) {
-            future.completeExceptionally(new Exception("Raspberry Pi device not found"));
-            return future;
-        }
-        
-        DatabaseReference statusRef = databaseRef.child("device_status").child(raspberryPiDeviceId);
+        DatabaseReference statusRef = databaseRef.child("device_status").child(deviceId);
         
         statusRef.addListenerForSingleValueEvent(new ValueEventListener() {
             @Override
             public void onDataChange(DataSnapshot dataSnapshot) {
+                if (!dataSnapshot.exists()) {
+                    forgetDevice(deviceId);
+                    future.completeExceptionally(new Exception("No status for device " + deviceId));
+                    return;
+                }
                 try {
                     EnvironmentalData data = parseEnvironmentalData(dataSnapshot);
                     future.complete(data);
@@ -92,80 +169,92 @@ public class FirebaseApiService {
     }
     
     public CompletableFuture<Boolean> controlRelay(String relayName, boolean state) {
-        CompletableFuture<Boolean> future = new CompletableFuture<>();
-        
-        if (raspberryPiDeviceId == null) {
-            future.completeExceptionally(new Exception("Raspberry Pi device not found"));
-            return future;
-        }
-        
-        String commandId = UUID.randomUUID().toString();
-        
-        Map<String, Object> command = new HashMap<>();
-        command.put("relay", relayName);
-        command.put("state", state);
-        command.put("command_id", commandId);
-        command.put("timestamp", System.currentTimeMillis());
-        
-        // Send command
-        DatabaseReference commandRef = databaseRef.child("commands").child(raspberryPiDeviceId).child("relay_control");
-        commandRef.setValue(command).addOnCompleteListener(task -> {
-            if (task.isSuccessful()) {
-                // Listen for response
-                listenForCommandResponse(commandId, future);
-            } else {
-                future.completeExceptionally(task.getException());
-            }
-        });
-        
-        return future;
+        return resolveDeviceId().thenCompose(deviceId -> controlRelay(deviceId, relayName, state));
+    }
+    
+    private CompletableFuture<Boolean> controlRelay(String deviceId, String relayName, boolean state) {
+        return commit(new CommandBatch().setRelay(deviceId, relayName, state));
     }
     
     public CompletableFuture<Boolean> updateThresholds(double tempMin, double tempMax, double humidityMin, double humidityMax) {
+        return resolveDeviceId().thenCompose(deviceId -> commit(new CommandBatch()
+                .setThresholds(deviceId, tempMin, tempMax, humidityMin, humidityMax)));
+    }
+    
+    // Writes the whole batch atomically in one updateChildren. Completes with true once
+    // every device has confirmed its relays; a batch with only thresholds completes on write.
+    public CompletableFuture<Boolean> commit(CommandBatch batch) {
+        Map<String, CompletableFuture<Boolean>> results = commitByDevice(batch);
         CompletableFuture<Boolean> future = new CompletableFuture<>();
-        
-        if (raspberryPiDeviceId == null) {
-            future.completeExceptionally(new Exception("Raspberry Pi device not found"));
-            return future;
+        CompletableFuture.allOf(results.values().toArray(new CompletableFuture[0]))
+                .whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        future.completeExceptionally(error.getCause() != null ? error.getCause() : error);
+                        return;
+                    }
+                    boolean success = true;
+                    for (CompletableFuture<Boolean> result : results.values()) {
+                        success &= result.join();
+                    }
+                    future.complete(success);
+                });
+        return future;
+    }
+    
+    // Same write as commit(), with one result per device: a device with relay changes
+    // completes on its own command response, one with only thresholds once the write lands
+    public Map<String, CompletableFuture<Boolean>> commitByDevice(CommandBatch batch) {
+        Map<String, CompletableFuture<Boolean>> results = new HashMap<>();
+        if (batch.isEmpty()) {
+            return results;
         }
+        Map<String, String> commandIds = new HashMap<>();
+        Map<String, Object> updates = batch.toUpdates(System.currentTimeMillis(),
+                () -> databaseRef.push().getKey(), commandIds);
         
-        Map<String, Object> thresholds = new HashMap<>();
-        thresholds.put("temp_min", tempMin);
-        thresholds.put("temp_max", tempMax);
-        thresholds.put("humidity_min", humidityMin);
-        thresholds.put("humidity_max", humidityMax);
-        thresholds.put("timestamp", System.currentTimeMillis());
-        
-        DatabaseReference thresholdRef = databaseRef.child("commands").child(raspberryPiDeviceId).child("thresholds");
-        thresholdRef.setValue(thresholds).addOnCompleteListener(task -> {
+        // Registered before the write, so a fast reply from the Pi is never missed
+        for (Map.Entry<String, String> entry : commandIds.entrySet()) {
+            results.put(entry.getKey(), responseCorrelator.expect(entry.getValue()));
+        }
+        CompletableFuture<Boolean> written = new CompletableFuture<>();
+        for (String deviceId : batch.getDeviceIds()) {
+            if (!results.containsKey(deviceId)) {
+                results.put(deviceId, written);
+            }
+        }
+        databaseRef.updateChildren(updates).addOnCompleteListener(task -> {
             if (task.isSuccessful()) {
-                future.complete(true);
-            } else {
-                future.completeExceptionally(task.getException());
+                written.complete(true);
+                return;
             }
+            for (String commandId : commandIds.values()) {
+                responseCorrelator.fail(commandId, task.getException());
+            }
+            written.completeExceptionally(task.getException());
         });
-        
-        return future;
+        return results;
     }
     
     public CompletableFuture<HistoricalData> getHistoricalData(int hours) {
+        return resolveDeviceId().thenCompose(deviceId -> getHistoricalData(deviceId, hours));
+    }
+    
+    public CompletableFuture<HistoricalData> getHistoricalData(String deviceId, int hours) {
         CompletableFuture<HistoricalData> future = new CompletableFuture<>();
+        if (deviceId == null) {
+            future.completeExceptionally(new Exception("Raspberry Pi device not found"));
+            return future;
+        }
         
         // For historical data, we'll read from a historical_data node
         // This would be populated by the Raspberry Pi periodically
-        DatabaseReference historyRef = databaseRef.child("historical_data").child(raspberryPiDeviceId);
+        DatabaseReference historyRef = databaseRef.child("historical_data").child(deviceId);
         
         historyRef.limitToLast(hours * 6).addListenerForSingleValueEvent(new ValueEventListener() {
             @Override
             public void onDataChange(DataSnapshot dataSnapshot) {
                 try {
-                    HistoricalData historicalData = new HistoricalData();
-                    historicalData.success = true;
-                    
-                    // Parse historical data
-                    // Implementation depends on how data is structured in Firebase
-                    
-                    future.complete(historicalData);
+                    future.complete(HistoricalData.fromSnapshot(dataSnapshot));
                 } catch (Exception e) {
                     future.completeExceptionally(e);
                 }
@@ -180,104 +269,197 @@ public class FirebaseApiService {
         return future;
     }
     
-    private void listenForCommandResponse(String commandId, CompletableFuture<Boolean> future) {
-        DatabaseReference responseRef = databaseRef.child("command_responses").child(commandId);
+    private EnvironmentalData parseEnvironmentalData(DataSnapshot dataSnapshot) {
+        EnvironmentalData data = EnvironmentalData.fromRecord(ChannelRegistry.defaultDecoder().decode(dataSnapshot));
+        data.timestamp = System.currentTimeMillis();
+        return data;
+    }
+    
+    // Runs once per committed snapshot however many screens subscribe, so every reading
+    // feeds the shared aggregates exactly once
+    private void ingest(String deviceId, EnvironmentalData data) {
+        liveReadings.append(data);
+        rollups.add(data);
+        liveStats.add(data);
+        anomalyDetector.process(data);
+        forecaster.add(data);
+        relayTimeline.add(data);
+        cube.add(deviceId, data);
+        availability.add(deviceId, data);
         
-        ValueEventListener responseListener = new ValueEventListener() {
-            @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                if (dataSnapshot.exists()) {
-                    Boolean success = dataSnapshot.child("success").getValue(Boolean.class);
-                    future.complete(success != null && success);
-                    
-                    // Clean up the response
-                    responseRef.removeValue();
-                }
+        Consumer<EnvironmentalData> sink = readingSink;
+        if (sink != null && deviceId.equals(raspberryPiDeviceId)) {
+            sink.accept(data);
+        }
+    }
+    
+    // Receives every committed reading of the Pi, once, whichever screens are subscribed
+    public void setReadingSink(Consumer<EnvironmentalData> sink) {
+        readingSink = sink;
+    }
+    
+    // Field-level view of a device's status node, shared by every subscriber
+    public synchronized RoomState getRoomState(String deviceId) {
+        RoomState room = rooms.get(deviceId);
+        if (room == null) {
+            room = new RoomState(deviceId, databaseRef.child("device_status").child(deviceId),
+                    ChannelRegistry.defaultDecoder(), data -> ingest(deviceId, data));
+            rooms.put(deviceId, room);
+        }
+        return room;
+    }
+    
+    public CompletableFuture<RoomState> resolveRoomState() {
+        return resolveDeviceId().thenApply(this::getRoomState);
+    }
+    
+    // The ESP32 tank monitor's status and pump commands feed the water level channel
+    private final ListenerMultiplexer.Decoder<Integer> waterStatusDecoder = snapshot -> {
+        if (!snapshot.exists()) {
+            return null;
+        }
+        Long minSensor = snapshot.child("min_sensor_value").getValue(Long.class);
+        Long maxSensor = snapshot.child("max_sensor_value").getValue(Long.class);
+        int state = WaterLevelChannel.parseState(snapshot.child("water_state").getValue(String.class));
+        waterLevel.addSample(System.currentTimeMillis(),
+                minSensor != null ? minSensor.intValue() : -1,
+                maxSensor != null ? maxSensor.intValue() : -1,
+                state);
+        return state;
+    };
+    
+    // The Pi deletes each command once handled, so most changes here are removals
+    private final ListenerMultiplexer.Decoder<Integer> pumpCommandDecoder = snapshot -> {
+        if (!snapshot.exists()) {
+            return null;
+        }
+        int command = WaterLevelChannel.parsePumpCommand(snapshot.child("pump_command").getValue(String.class));
+        // The sketch's timestamp is millis() since boot, sent as a string
+        long deviceStamp = -1;
+        try {
+            String stamp = snapshot.child("timestamp").getValue(String.class);
+            if (stamp != null) {
+                deviceStamp = Long.parseLong(stamp);
             }
-            
-            @Override
-            public void onCancelled(DatabaseError databaseError) {
-                future.completeExceptionally(databaseError.toException());
+        } catch (Exception e) {
+            Log.w(TAG, "Unreadable pump command timestamp", e);
+        }
+        waterLevel.addPumpTrigger(System.currentTimeMillis(), deviceStamp, command);
+        return command;
+    };
+    
+    public void listenForRealTimeUpdates(EnvironmentalDataListener listener) {
+        synchronized (realTimeSubscriptions) {
+            if (realTimeSubscriptions.containsKey(listener)) {
+                return;
             }
-        };
-        
-        responseRef.addValueEventListener(responseListener);
+            realTimeSubscriptions.put(listener, new ArrayList<>());
+        }
         
-        // Set timeout for response
-        CompletableFuture.delayedExecutor(TIMEOUT_SECONDS, TimeUnit.SECONDS).execute(() -> {
-            if (!future.isDone()) {
-                responseRef.removeEventListener(responseListener);
-                future.completeExceptionally(new Exception("Command response timeout"));
+        resolveDeviceId().whenComplete((deviceId, error) -> {
+            if (error != null) {
+                synchronized (realTimeSubscriptions) {
+                    realTimeSubscriptions.remove(listener);
+                }
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                listener.onError(cause instanceof Exception ? (Exception) cause : new Exception(cause));
+                return;
+            }
+            
+            synchronized (realTimeSubscriptions) {
+                List<ListenerMultiplexer.Subscription> active = realTimeSubscriptions.get(listener);
+                if (active == null) {
+                    return; // Stopped before the device ID resolved
+                }
+                active.add(getRoomState(deviceId).subscribe(new ListenerMultiplexer.Subscriber<EnvironmentalData>() {
+                    @Override
+                    public void onValue(EnvironmentalData value) {
+                        listener.onDataUpdate(value);
+                    }
+                    
+                    @Override
+                    public void onError(Exception e) {
+                        listener.onError(e);
+                    }
+                }));
+                
+                String esp32Id = esp32DeviceId;
+                if (esp32Id != null) {
+                    active.add(subscriptions.subscribe("device_status/" + esp32Id, waterStatusDecoder, logErrors("Water level status")));
+                    active.add(subscriptions.subscribe("esp32_commands/" + esp32Id, pumpCommandDecoder, logErrors("Pump command")));
+                }
             }
         });
     }
     
-    private EnvironmentalData parseEnvironmentalData(DataSnapshot dataSnapshot) {
-        EnvironmentalData data = new EnvironmentalData();
-        
-        // Parse sensor data
-        DataSnapshot sensorData = dataSnapshot.child("sensor_data");
-        if (sensorData.exists()) {
-            Double temp = sensorData.child("temperature").getValue(Double.class);
-            Double humidity = sensorData.child("humidity").getValue(Double.class);
-            
-            data.temperature = temp != null ? temp : 0.0;
-            data.humidity = humidity != null ? humidity : 0.0;
-        }
-        
-        // Parse relay states
-        DataSnapshot relayStates = dataSnapshot.child("relay_states");
-        if (relayStates.exists()) {
-            Boolean heater = relayStates.child("heater").getValue(Boolean.class);
-            Boolean humidifier = relayStates.child("humidifier").getValue(Boolean.class);
-            Boolean aquarium = relayStates.child("aquarium_pump").getValue(Boolean.class);
-            
-            data.heaterStatus = heater != null && heater;
-            data.humidifierStatus = humidifier != null && humidifier;
-            data.aquariumPumpStatus = aquarium != null && aquarium;
+    // Detaches this listener; the Firebase listeners go once no subscriber is left
+    public void stopListening(EnvironmentalDataListener listener) {
+        List<ListenerMultiplexer.Subscription> active;
+        synchronized (realTimeSubscriptions) {
+            active = realTimeSubscriptions.remove(listener);
         }
-        
-        // Parse ESP32 connection status
-        DataSnapshot esp32Status = dataSnapshot.child("esp32_status");
-        if (esp32Status.exists()) {
-            Boolean connected = esp32Status.child("connected").getValue(Boolean.class);
-            data.esp32Connected = connected != null && connected;
+        if (active != null) {
+            for (ListenerMultiplexer.Subscription subscription : active) {
+                subscription.cancel();
+            }
         }
-        
-        data.timestamp = System.currentTimeMillis();
-        
-        return data;
     }
     
-    public void listenForRealTimeUpdates(EnvironmentalDataListener listener) {
-        if (raspberryPiDeviceId == null) {
-            listener.onError(new Exception("Raspberry Pi device not found"));
-            return;
-        }
-        
-        DatabaseReference statusRef = databaseRef.child("device_status").child(raspberryPiDeviceId);
-        
-        statusRef.addValueEventListener(new ValueEventListener() {
+    public ListenerMultiplexer getSubscriptions() {
+        return subscriptions;
+    }
+    
+    private <T> ListenerMultiplexer.Subscriber<T> logErrors(String name) {
+        return new ListenerMultiplexer.Subscriber<T>() {
             @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                try {
-                    EnvironmentalData data = parseEnvironmentalData(dataSnapshot);
-                    listener.onDataUpdate(data);
-                } catch (Exception e) {
-                    listener.onError(e);
-                }
+            public void onValue(T value) {
             }
             
             @Override
-            public void onCancelled(DatabaseError databaseError) {
-                listener.onError(databaseError.toException());
+            public void onError(Exception error) {
+                Log.e(TAG, name + " listener failed", error);
             }
-        });
+        };
+    }
+    
+    public String getDeviceId() {
+        return raspberryPiDeviceId;
+    }
+    
+    public ReadingRingBuffer getLiveReadings() {
+        return liveReadings;
+    }
+    
+    public SensorRollups getRollups() {
+        return rollups;
+    }
+    
+    public EnvironmentalStats getLiveStats() {
+        return liveStats;
+    }
+    
+    public AnomalyDetector getAnomalyDetector() {
+        return anomalyDetector;
+    }
+    
+    public HoltWintersForecaster getForecaster() {
+        return forecaster;
+    }
+    
+    public RelayTimeline getRelayTimeline() {
+        return relayTimeline;
+    }
+    
+    public EnvironmentalCube getCube() {
+        return cube;
+    }
+    
+    public Esp32Availability getAvailability() {
+        return availability;
     }
     
-    public void stopListening() {
-        // Remove all listeners when app is paused/stopped
-        databaseRef.removeEventListener(null);
+    public WaterLevelChannel getWaterLevel() {
+        return waterLevel;
     }
     
     public boolean testConnection() {
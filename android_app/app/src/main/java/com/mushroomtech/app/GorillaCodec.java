@@ -0,0 +1,311 @@
+package com.mushroomtech.app;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Gorilla-style compression for reading series (Pelkonen et al., VLDB 2015):
+// timestamps as delta-of-delta, temperature and humidity as XOR against the previous
+// value, relay masks as a single bit while unchanged. Slow-moving DHT22 data sampled
+// every few seconds typically packs into 1-3 bytes per sample instead of 28. SensorLog
+// stores its sealed segments this way.
+//
+// Stream layout: 4-byte big-endian sample count, then the bit stream.
+public class GorillaCodec {
+    
+    private static final int HEADER_SIZE = 4;
+    
+    public static byte[] encode(HistoricalData history) {
+        Encoder encoder = new Encoder();
+        long[] timestamps = history.getTimestamps();
+        double[] temperatures = history.getTemperatures();
+        double[] humidities = history.getHumidities();
+        byte[] relayMasks = history.getRelayMasks();
+        for (int i = 0; i < history.getDataPointCount(); i++) {
+            encoder.add(timestamps[i], temperatures[i], humidities[i], relayMasks[i]);
+        }
+        return encoder.toByteArray();
+    }
+    
+    public static HistoricalData decode(byte[] data) {
+        Decoder decoder = new Decoder(data);
+        HistoricalData history = new HistoricalData(decoder.size());
+        while (decoder.next()) {
+            history.add(decoder.timestamp(), decoder.temperature(), decoder.humidity(), decoder.relayMask());
+        }
+        history.success = true;
+        history.finish();
+        return history;
+    }
+    
+    public static class Encoder {
+        private final BitWriter out = new BitWriter();
+        private final XorEncoder temperatures = new XorEncoder();
+        private final XorEncoder humidities = new XorEncoder();
+        private int count;
+        private long previousTimestamp;
+        private long previousDelta;
+        private int previousRelayMask;
+        
+        public void add(long timestamp, double temperature, double humidity, int relayMask) {
+            relayMask &= 0xF;
+            if (count == 0) {
+                out.write(timestamp, 64);
+                out.write(relayMask, 4);
+                temperatures.first(out, temperature);
+                humidities.first(out, humidity);
+            } else {
+                long delta = timestamp - previousTimestamp;
+                writeDeltaOfDelta(delta - previousDelta);
+                previousDelta = delta;
+                
+                if (relayMask == previousRelayMask) {
+                    out.write(0, 1);
+                } else {
+                    out.write(1, 1);
+                    out.write(relayMask, 4);
+                }
+                temperatures.next(out, temperature);
+                humidities.next(out, humidity);
+            }
+            previousTimestamp = timestamp;
+            previousRelayMask = relayMask;
+            count++;
+        }
+        
+        public int size() {
+            return count;
+        }
+        
+        public long sizeInBits() {
+            return HEADER_SIZE * 8L + out.bitCount;
+        }
+        
+        public byte[] toByteArray() {
+            int bodyLength = (int) ((out.bitCount + 7) >>> 3);
+            byte[] result = new byte[HEADER_SIZE + bodyLength];
+            result[0] = (byte) (count >>> 24);
+            result[1] = (byte) (count >>> 16);
+            result[2] = (byte) (count >>> 8);
+            result[3] = (byte) count;
+            System.arraycopy(out.bytes, 0, result, HEADER_SIZE, bodyLength);
+            return result;
+        }
+        
+        private void writeDeltaOfDelta(long dod) {
+            if (dod == 0) {
+                out.write(0, 1);
+            } else if (dod >= -64 && dod <= 63) {
+                out.write(0b10, 2);
+                out.write(dod, 7);
+            } else if (dod >= -256 && dod <= 255) {
+                out.write(0b110, 3);
+                out.write(dod, 9);
+            } else if (dod >= -2048 && dod <= 2047) {
+                out.write(0b1110, 4);
+                out.write(dod, 12);
+            } else {
+                out.write(0b1111, 4);
+                out.write(dod, 64);
+            }
+        }
+    }
+    
+    // Streaming decoder; call next() before reading each sample
+    public static class Decoder {
+        private final BitReader in;
+        private final XorDecoder temperatures = new XorDecoder();
+        private final XorDecoder humidities = new XorDecoder();
+        private final int size;
+        private int position;
+        private long timestamp;
+        private long delta;
+        private int relayMask;
+        
+        public Decoder(byte[] data) {
+            this(ByteBuffer.wrap(data), 0);
+        }
+        
+        // Decodes the stream starting at an absolute offset, without copying it out
+        public Decoder(ByteBuffer data, int offset) {
+            if (offset < 0 || data.limit() - offset < HEADER_SIZE) {
+                throw new IllegalArgumentException("Truncated stream");
+            }
+            this.size = ((data.get(offset) & 0xFF) << 24) | ((data.get(offset + 1) & 0xFF) << 16)
+                    | ((data.get(offset + 2) & 0xFF) << 8) | (data.get(offset + 3) & 0xFF);
+            this.in = new BitReader(data, offset + HEADER_SIZE);
+        }
+        
+        public int size() {
+            return size;
+        }
+        
+        public boolean next() {
+            if (position >= size) {
+                return false;
+            }
+            if (position == 0) {
+                timestamp = in.read(64);
+                relayMask = (int) in.read(4);
+                temperatures.first(in);
+                humidities.first(in);
+            } else {
+                delta += readDeltaOfDelta();
+                timestamp += delta;
+                if (in.read(1) != 0) {
+                    relayMask = (int) in.read(4);
+                }
+                temperatures.next(in);
+                humidities.next(in);
+            }
+            position++;
+            return true;
+        }
+        
+        public long timestamp() {
+            return timestamp;
+        }
+        
+        public double temperature() {
+            return Double.longBitsToDouble(temperatures.value);
+        }
+        
+        public double humidity() {
+            return Double.longBitsToDouble(humidities.value);
+        }
+        
+        public int relayMask() {
+            return relayMask;
+        }
+        
+        private long readDeltaOfDelta() {
+            if (in.read(1) == 0) {
+                return 0;
+            }
+            if (in.read(1) == 0) {
+                return in.readSigned(7);
+            }
+            if (in.read(1) == 0) {
+                return in.readSigned(9);
+            }
+            if (in.read(1) == 0) {
+                return in.readSigned(12);
+            }
+            return in.read(64);
+        }
+    }
+    
+    private static class XorEncoder {
+        private long previous;
+        private int leading = Integer.MAX_VALUE;
+        private int trailing;
+        
+        void first(BitWriter out, double value) {
+            previous = Double.doubleToRawLongBits(value);
+            out.write(previous, 64);
+        }
+        
+        void next(BitWriter out, double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            long xor = bits ^ previous;
+            previous = bits;
+            if (xor == 0) {
+                out.write(0, 1);
+                return;
+            }
+            out.write(1, 1);
+            
+            int newLeading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int newTrailing = Long.numberOfTrailingZeros(xor);
+            if (leading != Integer.MAX_VALUE && newLeading >= leading && newTrailing >= trailing) {
+                // Meaningful bits fit in the previous window
+                out.write(0, 1);
+                out.write(xor >>> trailing, 64 - leading - trailing);
+            } else {
+                leading = newLeading;
+                trailing = newTrailing;
+                int meaningful = 64 - leading - trailing;
+                out.write(1, 1);
+                out.write(leading, 5);
+                out.write(meaningful - 1, 6);
+                out.write(xor >>> trailing, meaningful);
+            }
+        }
+    }
+    
+    private static class XorDecoder {
+        long value;
+        private int leading;
+        private int trailing;
+        
+        void first(BitReader in) {
+            value = in.read(64);
+        }
+        
+        void next(BitReader in) {
+            if (in.read(1) == 0) {
+                return;
+            }
+            if (in.read(1) != 0) {
+                leading = (int) in.read(5);
+                int meaningful = (int) in.read(6) + 1;
+                trailing = 64 - leading - meaningful;
+            }
+            int meaningful = 64 - leading - trailing;
+            value ^= in.read(meaningful) << trailing;
+        }
+    }
+    
+    private static class BitWriter {
+        byte[] bytes = new byte[256];
+        long bitCount;
+        
+        // Writes the low `bits` bits of value, most significant first
+        void write(long value, int bits) {
+            for (int remaining = bits; remaining > 0; ) {
+                int byteIndex = (int) (bitCount >>> 3);
+                if (byteIndex >= bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                int free = 8 - (int) (bitCount & 7);
+                int chunk = Math.min(free, remaining);
+                int shift = remaining - chunk;
+                int part = (int) ((value >>> shift) & ((1 << chunk) - 1));
+                bytes[byteIndex] |= (byte) (part << (free - chunk));
+                remaining -= chunk;
+                bitCount += chunk;
+            }
+        }
+    }
+    
+    private static class BitReader {
+        private final ByteBuffer bytes;
+        private long bitPosition;
+        
+        BitReader(ByteBuffer bytes, int offset) {
+            this.bytes = bytes;
+            this.bitPosition = offset * 8L;
+        }
+        
+        long read(int bits) {
+            long value = 0;
+            for (int remaining = bits; remaining > 0; ) {
+                int byteIndex = (int) (bitPosition >>> 3);
+                if (byteIndex >= bytes.limit()) {
+                    throw new IllegalStateException("Truncated stream");
+                }
+                int available = 8 - (int) (bitPosition & 7);
+                int chunk = Math.min(available, remaining);
+                int part = ((bytes.get(byteIndex) & 0xFF) >>> (available - chunk)) & ((1 << chunk) - 1);
+                value = (value << chunk) | part;
+                remaining -= chunk;
+                bitPosition += chunk;
+            }
+            return value;
+        }
+        
+        long readSigned(int bits) {
+            long value = read(bits);
+            return (value << (64 - bits)) >> (64 - bits);
+        }
+    }
+} 
\ No newline at end of file
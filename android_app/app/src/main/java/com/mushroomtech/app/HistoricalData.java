@@ -1,16 +1,40 @@
 package com.mushroomtech.app;
 
-import org.json.JSONArray;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import com.google.firebase.database.DataSnapshot;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Calendar;
 
+// History as primitive columns sorted by timestamp. Built in a single pass over either
+// a Firebase snapshot or a streamed REST body, without an intermediate JSON tree.
 public class HistoricalData {
+    
+    private static final int INITIAL_CAPACITY = 256;
+    
     public boolean success;
     public String errorMessage;
-    public JSONArray dataPoints;
+    
+    private long[] timestamps;
+    private double[] temperatures;
+    private double[] humidities;
+    private byte[] relayMasks;
+    private int size;
     
     public HistoricalData() {
+        this(INITIAL_CAPACITY);
+    }
+    
+    public HistoricalData(int expectedSize) {
+        int capacity = Math.max(expectedSize, 1);
         this.success = false;
         this.errorMessage = "";
-        this.dataPoints = new JSONArray();
+        this.timestamps = new long[capacity];
+        this.temperatures = new double[capacity];
+        this.humidities = new double[capacity];
+        this.relayMasks = new byte[capacity];
     }
     
     public boolean isSuccess() {
@@ -21,11 +45,415 @@ public class HistoricalData {
         return errorMessage;
     }
     
-    public JSONArray getDataPoints() {
-        return dataPoints;
+    public int getDataPointCount() {
+        return size;
     }
     
-    public int getDataPointCount() {
-        return dataPoints != null ? dataPoints.length() : 0;
+    // Column arrays are trimmed to getDataPointCount() once parsing has finished
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+    
+    public double[] getTemperatures() {
+        return temperatures;
+    }
+    
+    public double[] getHumidities() {
+        return humidities;
+    }
+    
+    public byte[] getRelayMasks() {
+        return relayMasks;
+    }
+    
+    public boolean isRelayOn(int index, int relay) {
+        return (relayMasks[index] & relay) != 0;
+    }
+    
+    public long getStartTime() {
+        return size > 0 ? timestamps[0] : 0;
+    }
+    
+    public long getEndTime() {
+        return size > 0 ? timestamps[size - 1] : 0;
+    }
+    
+    public void add(long timestamp, double temperature, double humidity, int relayMask) {
+        if (size == timestamps.length) {
+            int capacity = size + (size >> 1) + 1;
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            temperatures = Arrays.copyOf(temperatures, capacity);
+            humidities = Arrays.copyOf(humidities, capacity);
+            relayMasks = Arrays.copyOf(relayMasks, capacity);
+        }
+        timestamps[size] = timestamp;
+        temperatures[size] = temperature;
+        humidities[size] = humidity;
+        relayMasks[size] = (byte) relayMask;
+        size++;
+    }
+    
+    // Sorts rows by timestamp and trims the columns to the row count
+    public void finish() {
+        if (!isAscending()) {
+            if (isDescending()) {
+                reverse();
+            } else if (!insertionSort(size)) {
+                mergeRuns();
+            }
+        }
+        if (timestamps.length != size) {
+            timestamps = Arrays.copyOf(timestamps, size);
+            temperatures = Arrays.copyOf(temperatures, size);
+            humidities = Arrays.copyOf(humidities, size);
+            relayMasks = Arrays.copyOf(relayMasks, size);
+        }
+    }
+    
+    // Parses historical_data/<deviceId> children, one record per child
+    public static HistoricalData fromSnapshot(DataSnapshot dataSnapshot) {
+        HistoricalData historicalData = new HistoricalData((int) dataSnapshot.getChildrenCount());
+        RecordParser record = new RecordParser();
+        
+        for (DataSnapshot recordSnapshot : dataSnapshot.getChildren()) {
+            record.reset();
+            record.readSnapshot(recordSnapshot);
+            if (record.hasTimestamp) {
+                historicalData.add(record.timestamp, record.temperature, record.humidity, record.relayMask);
+            }
+        }
+        
+        historicalData.success = true;
+        historicalData.finish();
+        return historicalData;
+    }
+    
+    // Streams a /history response: {"status": "...", "message": "...", "data": [{...}, ...]}
+    public static HistoricalData fromJson(Reader body) throws IOException {
+        HistoricalData historicalData = new HistoricalData();
+        RecordParser record = new RecordParser();
+        String status = null;
+        String message = null;
+        
+        JsonReader reader = new JsonReader(body);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("status".equals(name) && reader.peek() == JsonToken.STRING) {
+                    status = reader.nextString();
+                } else if ("message".equals(name) && reader.peek() == JsonToken.STRING) {
+                    message = reader.nextString();
+                } else if ("data".equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        record.reset();
+                        record.readJsonObject(reader);
+                        if (record.hasTimestamp) {
+                            historicalData.add(record.timestamp, record.temperature, record.humidity, record.relayMask);
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } finally {
+            reader.close();
+        }
+        
+        if ("success".equals(status)) {
+            historicalData.success = true;
+        } else {
+            historicalData.success = false;
+            historicalData.errorMessage = message != null ? message : "Unknown error";
+        }
+        historicalData.finish();
+        return historicalData;
+    }
+    
+    static int relayForKey(String key) {
+        switch (key) {
+            case "heater":
+            case "heater_status":
+                return EnvironmentalData.RELAY_HEATER;
+            case "humidifier":
+            case "humidifier_status":
+                return EnvironmentalData.RELAY_HUMIDIFIER;
+            case "water_pump":
+            case "water_pump_status":
+                return EnvironmentalData.RELAY_WATER_PUMP;
+            case "aquarium_pump":
+            case "aquarium_pump_status":
+                return EnvironmentalData.RELAY_AQUARIUM_PUMP;
+            default:
+                return 0;
+        }
+    }
+    
+    // Accepts epoch seconds or milliseconds
+    static long normalizeEpoch(double value) {
+        return value < 1e11 ? (long) (value * 1000) : (long) value;
+    }
+    
+    // Parses "yyyy-MM-dd[T ]HH:mm:ss[.SSS...]" in local time, as written by the Pi.
+    // Returns -1 when the text is not in that form.
+    static long parseTimestamp(String text, Calendar calendar) {
+        if (text == null || text.length() < 19) {
+            return -1;
+        }
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 2);
+        int day = digits(text, 8, 2);
+        int hour = digits(text, 11, 2);
+        int minute = digits(text, 14, 2);
+        int second = digits(text, 17, 2);
+        if (year < 0 || month < 0 || day < 0 || hour < 0 || minute < 0 || second < 0) {
+            return -1;
+        }
+        
+        int millis = 0;
+        if (text.length() > 20 && text.charAt(19) == '.') {
+            int scale = 100;
+            for (int i = 20; i < text.length() && i < 23; i++) {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                millis += (c - '0') * scale;
+                scale /= 10;
+            }
+        }
+        
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, minute, second);
+        calendar.set(Calendar.MILLISECOND, millis);
+        return calendar.getTimeInMillis();
+    }
+    
+    private static int digits(String text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+    
+    private boolean isAscending() {
+        for (int i = 1; i < size; i++) {
+            if (timestamps[i] < timestamps[i - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private boolean isDescending() {
+        for (int i = 1; i < size; i++) {
+            if (timestamps[i] > timestamps[i - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private void reverse() {
+        for (int i = 0, j = size - 1; i < j; i++, j--) {
+            swap(i, j);
+        }
+    }
+    
+    // Fixes up a few rows that arrived a short way out of place. Gives up, leaving the rows
+    // partly sorted, once it has made maxSwaps swaps.
+    private boolean insertionSort(int maxSwaps) {
+        int swaps = 0;
+        for (int i = 1; i < size; i++) {
+            for (int j = i; j > 0 && timestamps[j] < timestamps[j - 1]; j--) {
+                if (++swaps > maxSwaps) {
+                    return false;
+                }
+                swap(j, j - 1);
+            }
+        }
+        return true;
+    }
+    
+    // Natural merge sort of a row index permutation: the ascending runs already in the data
+    // are merged pairwise, O(n log runs) and stable, then each column is permuted once
+    private void mergeRuns() {
+        int[] runStarts = new int[16];
+        int runs = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || timestamps[i] < timestamps[i - 1]) {
+                if (runs == runStarts.length) {
+                    runStarts = Arrays.copyOf(runStarts, runs * 2);
+                }
+                runStarts[runs++] = i;
+            }
+        }
+        
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        int[] merged = new int[size];
+        while (runs > 1) {
+            int mergedRuns = 0;
+            for (int run = 0; run < runs; run += 2) {
+                int start = runStarts[run];
+                int middle = run + 1 < runs ? runStarts[run + 1] : size;
+                int end = run + 2 < runs ? runStarts[run + 2] : size;
+                int left = start;
+                int right = middle;
+                for (int out = start; out < end; out++) {
+                    if (right >= end || (left < middle && timestamps[order[left]] <= timestamps[order[right]])) {
+                        merged[out] = order[left++];
+                    } else {
+                        merged[out] = order[right++];
+                    }
+                }
+                runStarts[mergedRuns++] = start;
+            }
+            runs = mergedRuns;
+            int[] swap = order;
+            order = merged;
+            merged = swap;
+        }
+        
+        long[] sortedTimestamps = new long[size];
+        double[] sortedTemperatures = new double[size];
+        double[] sortedHumidities = new double[size];
+        byte[] sortedRelayMasks = new byte[size];
+        for (int i = 0; i < size; i++) {
+            int row = order[i];
+            sortedTimestamps[i] = timestamps[row];
+            sortedTemperatures[i] = temperatures[row];
+            sortedHumidities[i] = humidities[row];
+            sortedRelayMasks[i] = relayMasks[row];
+        }
+        timestamps = sortedTimestamps;
+        temperatures = sortedTemperatures;
+        humidities = sortedHumidities;
+        relayMasks = sortedRelayMasks;
+    }
+    
+    private void swap(int i, int j) {
+        long timestamp = timestamps[i];
+        timestamps[i] = timestamps[j];
+        timestamps[j] = timestamp;
+        
+        double temperature = temperatures[i];
+        temperatures[i] = temperatures[j];
+        temperatures[j] = temperature;
+        
+        double humidity = humidities[i];
+        humidities[i] = humidities[j];
+        humidities[j] = humidity;
+        
+        byte relayMask = relayMasks[i];
+        relayMasks[i] = relayMasks[j];
+        relayMasks[j] = relayMask;
+    }
+    
+    // Reusable per-record state; nested sensor_data / relay_states objects are flattened
+    private static class RecordParser {
+        private final Calendar calendar = Calendar.getInstance();
+        
+        long timestamp;
+        boolean hasTimestamp;
+        double temperature;
+        double humidity;
+        int relayMask;
+        
+        void reset() {
+            timestamp = 0;
+            hasTimestamp = false;
+            temperature = Double.NaN;
+            humidity = Double.NaN;
+            relayMask = 0;
+        }
+        
+        void readSnapshot(DataSnapshot recordSnapshot) {
+            for (DataSnapshot field : recordSnapshot.getChildren()) {
+                if (field.hasChildren()) {
+                    readSnapshot(field);
+                    continue;
+                }
+                Object value = field.getValue();
+                String key = field.getKey();
+                if (value instanceof Number) {
+                    acceptNumber(key, ((Number) value).doubleValue());
+                } else if (value instanceof Boolean) {
+                    acceptBoolean(key, (Boolean) value);
+                } else if (value instanceof String) {
+                    acceptString(key, (String) value);
+                }
+            }
+        }
+        
+        void readJsonObject(JsonReader reader) throws IOException {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                switch (reader.peek()) {
+                    case BEGIN_OBJECT:
+                        readJsonObject(reader);
+                        break;
+                    case NUMBER:
+                        acceptNumber(key, reader.nextDouble());
+                        break;
+                    case BOOLEAN:
+                        acceptBoolean(key, reader.nextBoolean());
+                        break;
+                    case STRING:
+                        acceptString(key, reader.nextString());
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+        }
+        
+        private void acceptNumber(String key, double value) {
+            switch (key) {
+                case "timestamp":
+                    timestamp = normalizeEpoch(value);
+                    hasTimestamp = true;
+                    break;
+                case "temperature":
+                    temperature = value;
+                    break;
+                case "humidity":
+                    humidity = value;
+                    break;
+                default:
+                    // SQLite stores relay flags as 0/1
+                    acceptBoolean(key, value != 0);
+                    break;
+            }
+        }
+        
+        private void acceptBoolean(String key, boolean value) {
+            if (value) {
+                relayMask |= relayForKey(key);
+            }
+        }
+        
+        private void acceptString(String key, String value) {
+            if ("timestamp".equals(key)) {
+                long parsed = parseTimestamp(value, calendar);
+                if (parsed >= 0) {
+                    timestamp = parsed;
+                    hasTimestamp = true;
+                }
+            }
+        }
     }
 } 
\ No newline at end of file
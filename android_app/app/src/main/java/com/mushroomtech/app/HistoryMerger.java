@@ -0,0 +1,92 @@
+package com.mushroomtech.app;
+
+// Interleaves the Pi's synced history with a scan of the on-device log, in time order, so
+// history fills in the stretches the log did not see. A history row is dropped when it falls
+// on or between two log records close enough to be one run of live readings. Ranges are fed
+// a chunk at a time; history rows after the last log record of a chunk wait for the next
+// one, as that run may continue into it. Call finish() after the last chunk.
+class HistoryMerger implements SensorLog.RecordVisitor {
+    
+    private final SensorLog.RecordVisitor liveTarget;
+    private final SensorLog.RecordVisitor historyTarget;
+    private HistoricalData pending = new HistoricalData();
+    private int next;
+    private long lastLive = Long.MIN_VALUE;
+    
+    HistoryMerger(SensorLog.RecordVisitor target) {
+        this(target, target);
+    }
+    
+    // Rows from each source go to their own visitor, still in one time-ordered sequence
+    HistoryMerger(SensorLog.RecordVisitor liveTarget, SensorLog.RecordVisitor historyTarget) {
+        this.liveTarget = liveTarget;
+        this.historyTarget = historyTarget;
+    }
+    
+    // Earliest record in either source, or -1 if both are empty; history may be null
+    static long firstTimestamp(SensorLog log, SensorLog history) {
+        long first = log.getFirstTimestamp();
+        long synced = history != null ? history.getFirstTimestamp() : -1;
+        if (first < 0 || (synced >= 0 && synced < first)) {
+            return synced;
+        }
+        return first;
+    }
+    
+    // Feeds [from, to) of both sources. The log is scanned directly; the history is sparse
+    // enough to read a chunk of it into memory.
+    void scanChunk(SensorLog log, SensorLog history, long from, long to) {
+        if (history != null) {
+            addHistory(history.read(from, to));
+        }
+        log.scan(from, to, this);
+    }
+    
+    void addHistory(HistoricalData chunk) {
+        if (chunk.getDataPointCount() == 0) {
+            return;
+        }
+        if (next < pending.getDataPointCount()) {
+            HistoricalData carried = new HistoricalData();
+            copy(pending, next, carried);
+            copy(chunk, 0, carried);
+            carried.finish();
+            chunk = carried;
+        }
+        pending = chunk;
+        next = 0;
+    }
+    
+    @Override
+    public void visit(long timestamp, double temperature, double humidity, int relayMask) {
+        boolean continuous = lastLive != Long.MIN_VALUE && timestamp - lastLive <= SensorQuery.LIVE_SAMPLE_GAP;
+        long[] timestamps = pending.getTimestamps();
+        int size = pending.getDataPointCount();
+        while (next < size && timestamps[next] <= timestamp) {
+            if (!continuous && timestamps[next] < timestamp) {
+                emit(next);
+            }
+            next++;
+        }
+        liveTarget.visit(timestamp, temperature, humidity, relayMask);
+        lastLive = timestamp;
+    }
+    
+    void finish() {
+        for (; next < pending.getDataPointCount(); next++) {
+            emit(next);
+        }
+    }
+    
+    private void emit(int index) {
+        historyTarget.visit(pending.getTimestamps()[index], pending.getTemperatures()[index],
+                pending.getHumidities()[index], pending.getRelayMasks()[index]);
+    }
+    
+    private static void copy(HistoricalData source, int from, HistoricalData target) {
+        for (int i = from; i < source.getDataPointCount(); i++) {
+            target.add(source.getTimestamps()[i], source.getTemperatures()[i], source.getHumidities()[i],
+                    source.getRelayMasks()[i]);
+        }
+    }
+} 
\ No newline at end of file
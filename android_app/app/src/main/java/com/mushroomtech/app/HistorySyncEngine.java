@@ -0,0 +1,299 @@
+package com.mushroomtech.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.BatteryManager;
+import android.util.Log;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Mirrors historical_data/<deviceId> into a local SensorLog. The last synced child key is
+// persisted per device, so each sync only asks Firebase for children after that key. The
+// first synced key is kept too, so rows older than the store can be fetched on their own.
+public class HistorySyncEngine {
+    
+    private static final String TAG = "HistorySyncEngine";
+    private static final String PREFS_NAME = "history_sync";
+    private static final String CURSOR_PREFIX = "cursor_";
+    private static final String HEAD_PREFIX = "head_";
+    
+    private static final int PAGE_SIZE = 500;
+    private static final long ROW_INTERVAL = 10 * SensorRollups.MINUTE;
+    // First sync pulls the last week at the Pi's 10-minute cadence
+    private static final int INITIAL_WINDOW = (int) (7 * SensorRollups.DAY / ROW_INTERVAL);
+    private static final long LOCAL_RETENTION = 365 * SensorRollups.DAY;
+    
+    private final Context context;
+    private final DatabaseReference databaseRef;
+    private final SharedPreferences prefs;
+    private final ExecutorService storeExecutor = Executors.newSingleThreadExecutor();
+    private final Map<String, SensorLog> stores = new HashMap<>();
+    private final Map<String, CompletableFuture<Integer>> inFlight = new HashMap<>();
+    private BroadcastReceiver powerReceiver;
+    private volatile PageListener pageListener;
+    
+    public interface PageListener {
+        // Called on the store thread after a page is stored, in fetch order
+        void onPage(String deviceId, HistoricalData page);
+    }
+    
+    public HistorySyncEngine(Context context) {
+        this.context = context.getApplicationContext();
+        this.databaseRef = FirebaseDatabase.getInstance().getReference();
+        this.prefs = this.context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+    
+    // Fetches every child newer than the stored cursor; completes with the number of new rows
+    public synchronized CompletableFuture<Integer> sync(String deviceId) {
+        CompletableFuture<Integer> running = inFlight.get(deviceId);
+        if (running != null) {
+            return running;
+        }
+        
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        inFlight.put(deviceId, future);
+        future.whenComplete((count, error) -> {
+            synchronized (HistorySyncEngine.this) {
+                inFlight.remove(deviceId);
+            }
+        });
+        
+        fetchPage(deviceId, getCursor(deviceId), 0, future);
+        return future;
+    }
+    
+    // Syncs only when it is cheap for the user: on an unmetered Wi-Fi link and charging
+    public CompletableFuture<Integer> syncIfIdle(String deviceId) {
+        if (!isOnWifiAndCharging()) {
+            return CompletableFuture.completedFuture(0);
+        }
+        return sync(deviceId);
+    }
+    
+    // Re-checks whenever the charger is plugged in while the app is running
+    public synchronized void startOpportunisticSync(String deviceId) {
+        stopOpportunisticSync();
+        powerReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                syncIfIdle(deviceId);
+            }
+        };
+        context.registerReceiver(powerReceiver, new IntentFilter(Intent.ACTION_POWER_CONNECTED));
+        syncIfIdle(deviceId);
+    }
+    
+    public synchronized void stopOpportunisticSync() {
+        if (powerReceiver != null) {
+            context.unregisterReceiver(powerReceiver);
+            powerReceiver = null;
+        }
+    }
+    
+    // The device's synced store. SensorLog reads take its lock, so callers may scan it from
+    // their own thread while pages are appended here.
+    public CompletableFuture<SensorLog> getStore(String deviceId) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return storeFor(deviceId);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }, storeExecutor);
+    }
+    
+    public CompletableFuture<HistoricalData> readLocal(String deviceId, long from, long to) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return storeFor(deviceId).read(from, to);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }, storeExecutor);
+    }
+    
+    // Rows with from <= timestamp older than anything in the store, straight from Firebase
+    // and not stored: the store is append-only. Only the missing stretch is downloaded.
+    public CompletableFuture<HistoricalData> fetchBefore(String deviceId, long from) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return storeFor(deviceId).getFirstTimestamp();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }, storeExecutor).thenCompose(first -> {
+            long before = first >= 0 ? first : System.currentTimeMillis();
+            if (before <= from) {
+                HistoricalData empty = new HistoricalData();
+                empty.success = true;
+                return CompletableFuture.completedFuture(empty);
+            }
+            int rows = (int) Math.min(Integer.MAX_VALUE, (before - from + ROW_INTERVAL - 1) / ROW_INTERVAL + 1);
+            String head = prefs.getString(HEAD_PREFIX + deviceId, null);
+            DatabaseReference historyRef = databaseRef.child("historical_data").child(deviceId);
+            // Stores synced before the head key was recorded fall back to counting back from
+            // the newest row
+            Query query = head != null && first >= 0
+                    ? historyRef.orderByKey().endBefore(head).limitToLast(rows)
+                    : historyRef.orderByKey().limitToLast((int) Math.min(Integer.MAX_VALUE,
+                            (System.currentTimeMillis() - from) / ROW_INTERVAL + 1));
+            
+            CompletableFuture<HistoricalData> future = new CompletableFuture<>();
+            query.addListenerForSingleValueEvent(new ValueEventListener() {
+                @Override
+                public void onDataChange(DataSnapshot dataSnapshot) {
+                    HistoricalData fetched = HistoricalData.fromSnapshot(dataSnapshot);
+                    HistoricalData older = new HistoricalData();
+                    long[] timestamps = fetched.getTimestamps();
+                    for (int i = 0; i < fetched.getDataPointCount(); i++) {
+                        if (timestamps[i] >= from && timestamps[i] < before) {
+                            older.add(timestamps[i], fetched.getTemperatures()[i], fetched.getHumidities()[i],
+                                    fetched.getRelayMasks()[i]);
+                        }
+                    }
+                    older.success = true;
+                    older.finish();
+                    future.complete(older);
+                }
+                
+                @Override
+                public void onCancelled(DatabaseError databaseError) {
+                    future.completeExceptionally(databaseError.toException());
+                }
+            });
+            return future;
+        });
+    }
+    
+    public void setPageListener(PageListener listener) {
+        pageListener = listener;
+    }
+    
+    public String getCursor(String deviceId) {
+        return prefs.getString(CURSOR_PREFIX + deviceId, null);
+    }
+    
+    public boolean isOnWifiAndCharging() {
+        ConnectivityManager connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        BatteryManager battery = (BatteryManager) context.getSystemService(Context.BATTERY_SERVICE);
+        if (connectivity == null || battery == null) {
+            return false;
+        }
+        Network network = connectivity.getActiveNetwork();
+        NetworkCapabilities capabilities = network != null ? connectivity.getNetworkCapabilities(network) : null;
+        return capabilities != null
+                && capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)
+                && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED)
+                && battery.isCharging();
+    }
+    
+    public void shutdown() {
+        stopOpportunisticSync();
+        storeExecutor.execute(() -> {
+            for (SensorLog store : stores.values()) {
+                store.close();
+            }
+            stores.clear();
+        });
+        storeExecutor.shutdown();
+    }
+    
+    private void fetchPage(String deviceId, String cursor, int synced, CompletableFuture<Integer> future) {
+        DatabaseReference historyRef = databaseRef.child("historical_data").child(deviceId);
+        Query query = cursor == null
+                ? historyRef.orderByKey().limitToLast(INITIAL_WINDOW)
+                : historyRef.orderByKey().startAfter(cursor).limitToFirst(PAGE_SIZE);
+        
+        query.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                String firstKey = null;
+                String lastKey = null;
+                for (DataSnapshot child : dataSnapshot.getChildren()) {
+                    if (firstKey == null) {
+                        firstKey = child.getKey();
+                    }
+                    lastKey = child.getKey();
+                }
+                if (lastKey == null || storeExecutor.isShutdown()) {
+                    future.complete(synced);
+                    return;
+                }
+                
+                HistoricalData page = HistoricalData.fromSnapshot(dataSnapshot);
+                boolean more = cursor != null && dataSnapshot.getChildrenCount() >= PAGE_SIZE;
+                String nextCursor = lastKey;
+                String headKey = firstKey;
+                
+                // Store first, then advance the cursor, so a crash can only cause a re-fetch
+                storeExecutor.execute(() -> {
+                    try {
+                        SensorLog store = storeFor(deviceId);
+                        long[] timestamps = page.getTimestamps();
+                        double[] temperatures = page.getTemperatures();
+                        double[] humidities = page.getHumidities();
+                        byte[] relayMasks = page.getRelayMasks();
+                        for (int i = 0; i < page.getDataPointCount(); i++) {
+                            store.append(timestamps[i], temperatures[i], humidities[i], relayMasks[i]);
+                        }
+                        store.flush();
+                        SharedPreferences.Editor editor = prefs.edit().putString(CURSOR_PREFIX + deviceId, nextCursor);
+                        if (cursor == null) {
+                            editor.putString(HEAD_PREFIX + deviceId, headKey);
+                        }
+                        editor.apply();
+                    } catch (IOException e) {
+                        Log.e(TAG, "Failed to store synced history", e);
+                        future.completeExceptionally(e);
+                        return;
+                    }
+                    PageListener listener = pageListener;
+                    if (listener != null) {
+                        listener.onPage(deviceId, page);
+                    }
+                    
+                    int total = synced + page.getDataPointCount();
+                    if (more) {
+                        fetchPage(deviceId, nextCursor, total, future);
+                    } else {
+                        Log.i(TAG, "Synced " + total + " history rows for " + deviceId);
+                        future.complete(total);
+                    }
+                });
+            }
+            
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                future.completeExceptionally(databaseError.toException());
+            }
+        });
+    }
+    
+    // Only touched from storeExecutor
+    private SensorLog storeFor(String deviceId) throws IOException {
+        SensorLog store = stores.get(deviceId);
+        if (store == null) {
+            File directory = new File(new File(context.getFilesDir(), "history"), deviceId);
+            store = new SensorLog(directory, SensorLog.DEFAULT_SEGMENT_DURATION, LOCAL_RETENTION);
+            stores.put(deviceId, store);
+        }
+        return store;
+    }
+} 
\ No newline at end of file
@@ -0,0 +1,193 @@
+package com.mushroomtech.app;
+
+// Additive Holt-Winters forecaster for temperature and humidity with a daily season.
+// Readings are averaged into 15-minute bins; each completed bin updates level, trend and
+// the seasonal slot in O(1). Bins with no readings carry level forward along the trend.
+// State is 2 x (96 seasonal slots + a few scalars) doubles.
+public class HoltWintersForecaster {
+    
+    public static final long BIN_MILLIS = 15 * SensorRollups.MINUTE;
+    public static final int SEASON_LENGTH = (int) (SensorRollups.DAY / BIN_MILLIS);
+    
+    private static final double ALPHA = 0.2;   // level
+    private static final double BETA = 0.05;   // trend
+    private static final double GAMMA = 0.2;   // season
+    
+    private Series temperature = new Series();
+    private Series humidity = new Series();
+    
+    private long currentBin = Long.MIN_VALUE;
+    
+    public void add(EnvironmentalData data) {
+        add(data.timestamp, data.temperature, data.humidity);
+    }
+    
+    public synchronized void add(long timestamp, double temperatureValue, double humidityValue) {
+        long bin = Math.floorDiv(timestamp, BIN_MILLIS);
+        if (bin < currentBin) {
+            return;
+        }
+        if (bin != currentBin) {
+            advanceTo(bin);
+        }
+        temperature.accumulate(temperatureValue);
+        humidity.accumulate(humidityValue);
+    }
+    
+    // Rebuilds the model from stored readings in time order, so forecasts need not wait a day
+    // of live data after a restart. Readings for the bin being filled live are kept; closed
+    // live bins are expected to be in the history. Does nothing if the history adds no bins.
+    public synchronized void warmUp(HistoricalData history) {
+        long[] timestamps = history.getTimestamps();
+        int end = history.getDataPointCount();
+        if (currentBin != Long.MIN_VALUE) {
+            while (end > 0 && Math.floorDiv(timestamps[end - 1], BIN_MILLIS) >= currentBin) {
+                end--;
+            }
+        }
+        if (end == 0) {
+            return;
+        }
+        
+        Series liveTemperature = temperature;
+        Series liveHumidity = humidity;
+        long liveBin = currentBin;
+        temperature = new Series();
+        humidity = new Series();
+        currentBin = Long.MIN_VALUE;
+        for (int i = 0; i < end; i++) {
+            add(timestamps[i], history.getTemperatures()[i], history.getHumidities()[i]);
+        }
+        if (liveBin != Long.MIN_VALUE) {
+            advanceTo(liveBin);
+            temperature.carryOpenBin(liveTemperature);
+            humidity.carryOpenBin(liveHumidity);
+        }
+    }
+    
+    // Closes the current bin and steps over any empty ones up to the given bin
+    private void advanceTo(long bin) {
+        if (currentBin != Long.MIN_VALUE) {
+            int slot = (int) Math.floorMod(currentBin, (long) SEASON_LENGTH);
+            temperature.closeBin(slot);
+            humidity.closeBin(slot);
+            // Projecting the trend further than a day out says nothing useful
+            long missed = Math.min(bin - currentBin - 1, SEASON_LENGTH);
+            temperature.skipBins(missed);
+            humidity.skipBins(missed);
+        }
+        currentBin = bin;
+    }
+    
+    // Forecast for the bin containing now + horizon; NaN until enough history is seen
+    public synchronized double forecastTemperature(long horizonMillis) {
+        return temperature.forecast(stepsAhead(horizonMillis), nextSlot(horizonMillis));
+    }
+    
+    public synchronized double forecastHumidity(long horizonMillis) {
+        return humidity.forecast(stepsAhead(horizonMillis), nextSlot(horizonMillis));
+    }
+    
+    // Minutes until the temperature forecast first leaves [min, max], or -1 within the horizon
+    public synchronized int minutesUntilTemperatureOutside(double min, double max, long horizonMillis) {
+        return temperature.firstBreach(min, max, maxSteps(horizonMillis), baseSlot());
+    }
+    
+    public synchronized int minutesUntilHumidityOutside(double min, double max, long horizonMillis) {
+        return humidity.firstBreach(min, max, maxSteps(horizonMillis), baseSlot());
+    }
+    
+    // True once a full day has been seen and every seasonal slot is initialised
+    public synchronized boolean isReady() {
+        return temperature.binsSeen >= SEASON_LENGTH && humidity.binsSeen >= SEASON_LENGTH;
+    }
+    
+    private int stepsAhead(long horizonMillis) {
+        return (int) Math.max(1, (horizonMillis + BIN_MILLIS - 1) / BIN_MILLIS);
+    }
+    
+    private int maxSteps(long horizonMillis) {
+        return (int) Math.max(1, horizonMillis / BIN_MILLIS);
+    }
+    
+    // Seasonal slot of the last completed bin
+    private int baseSlot() {
+        return (int) Math.floorMod(currentBin - 1, (long) SEASON_LENGTH);
+    }
+    
+    private int nextSlot(long horizonMillis) {
+        return (baseSlot() + stepsAhead(horizonMillis)) % SEASON_LENGTH;
+    }
+    
+    private static class Series {
+        private final double[] season = new double[SEASON_LENGTH];
+        private double level;
+        private double trend;
+        private int binsSeen;
+        
+        private double binSum;
+        private int binCount;
+        
+        void accumulate(double value) {
+            if (!Double.isNaN(value)) {
+                binSum += value;
+                binCount++;
+            }
+        }
+        
+        void closeBin(int slot) {
+            if (binCount == 0) {
+                skipBins(1); // No valid readings in this bin (dropout)
+                return;
+            }
+            double value = binSum / binCount;
+            binSum = 0;
+            binCount = 0;
+            
+            if (binsSeen < SEASON_LENGTH) {
+                // First day: level is the running mean, each slot its offset from it
+                level += (value - level) / (binsSeen + 1);
+                trend = 0;
+                season[slot] = value - level;
+            } else {
+                double previousLevel = level;
+                level = ALPHA * (value - season[slot]) + (1 - ALPHA) * (level + trend);
+                trend = BETA * (level - previousLevel) + (1 - BETA) * trend;
+                season[slot] = GAMMA * (value - level) + (1 - GAMMA) * season[slot];
+            }
+            binsSeen++;
+        }
+        
+        // Bins without readings: the level follows the trend, season and trend are unchanged
+        void skipBins(long bins) {
+            if (binsSeen >= SEASON_LENGTH) {
+                level += bins * trend;
+            }
+        }
+        
+        void carryOpenBin(Series other) {
+            binSum = other.binSum;
+            binCount = other.binCount;
+        }
+        
+        double forecast(int steps, int slot) {
+            if (binsSeen < 2) {
+                return Double.NaN;
+            }
+            return level + steps * trend + season[slot];
+        }
+        
+        int firstBreach(double min, double max, int steps, int baseSlot) {
+            if (binsSeen < 2) {
+                return -1;
+            }
+            for (int step = 1; step <= steps; step++) {
+                double value = level + step * trend + season[(baseSlot + step) % SEASON_LENGTH];
+                if (value < min || value > max) {
+                    return (int) (step * BIN_MILLIS / SensorRollups.MINUTE);
+                }
+            }
+            return -1;
+        }
+    }
+} 
\ No newline at end of file
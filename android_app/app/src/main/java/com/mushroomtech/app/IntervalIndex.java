@@ -0,0 +1,144 @@
+package com.mushroomtech.app;
+
+import java.util.Arrays;
+
+// Sorted, non-overlapping [start, end) intervals with a prefix sum of their lengths, shared by
+// RelayTimeline (relay on-periods) and Esp32Availability (observed and offline periods).
+// Intervals are appended in time order and only the last one may still be open and growing,
+// so the prefix sum never has to be rewritten. Coverage, membership and start counts over a
+// range are binary searches.
+class IntervalIndex {
+    
+    private long[] starts;
+    private long[] ends;
+    // Total length of intervals 0..i-1
+    private long[] cumulative;
+    private int size;
+    private boolean open;
+    
+    IntervalIndex(int initialCapacity) {
+        starts = new long[initialCapacity];
+        ends = new long[initialCapacity];
+        cumulative = new long[initialCapacity];
+    }
+    
+    int size() {
+        return size;
+    }
+    
+    boolean isOpen() {
+        return open;
+    }
+    
+    long startAt(int index) {
+        return starts[index];
+    }
+    
+    long endAt(int index) {
+        return ends[index];
+    }
+    
+    // Starts a new interval; any open one ends where it was last extended to
+    void open(long start) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+            cumulative = Arrays.copyOf(cumulative, size * 2);
+        }
+        cumulative[size] = size == 0 ? 0 : cumulative[size - 1] + (ends[size - 1] - starts[size - 1]);
+        starts[size] = start;
+        ends[size] = start;
+        size++;
+        open = true;
+    }
+    
+    void extendTo(long end) {
+        if (open && end > ends[size - 1]) {
+            ends[size - 1] = end;
+        }
+    }
+    
+    void close() {
+        open = false;
+    }
+    
+    boolean contains(long timestamp) {
+        int index = upperBound(timestamp) - 1;
+        return index >= 0 && (timestamp < ends[index] || (open && index == size - 1 && timestamp == ends[index]));
+    }
+    
+    // Length of [from, to) covered by intervals
+    long coveredMillis(long from, long to) {
+        if (to <= from || size == 0) {
+            return 0;
+        }
+        // Intervals [first, last) may overlap the range; only the two ends need clipping
+        int first = firstOverlapping(from);
+        int last = lowerBound(to);
+        if (first >= last) {
+            return 0;
+        }
+        long total = cumulative[last - 1] + (ends[last - 1] - starts[last - 1]) - cumulative[first];
+        total -= Math.max(0, from - starts[first]);
+        total -= Math.max(0, ends[last - 1] - to);
+        return total;
+    }
+    
+    // Intervals starting within [from, to)
+    int startCount(long from, long to) {
+        return Math.max(0, lowerBound(to) - lowerBound(from));
+    }
+    
+    // Closed intervals starting within [from, to) that lasted less than minLength
+    int shortCount(long from, long to, long minLength) {
+        int count = 0;
+        int last = lowerBound(to);
+        for (int i = lowerBound(from); i < last; i++) {
+            // A still-open interval is not short yet
+            boolean running = open && i == size - 1;
+            if (!running && ends[i] - starts[i] < minLength) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    // First interval ending after from
+    int firstOverlapping(long from) {
+        int first = Math.max(upperBound(from) - 1, 0);
+        if (first < size && ends[first] <= from) {
+            first++;
+        }
+        return first;
+    }
+    
+    // First interval starting at or after key
+    int lowerBound(long key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    // First interval starting after key
+    int upperBound(long key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+} 
\ No newline at end of file
@@ -0,0 +1,134 @@
+package com.mushroomtech.app;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Holds at most one Firebase ValueEventListener per path. Each snapshot is decoded once and
+// the result fanned out to every in-app subscriber; the Firebase listener is attached with
+// the first subscriber and detached when the last one cancels. A new subscriber gets the
+// latest decoded value straight away.
+public class ListenerMultiplexer {
+    
+    public interface Decoder<T> {
+        // Runs once per snapshot; null results (e.g. a deleted node) are not delivered
+        T decode(DataSnapshot snapshot) throws Exception;
+    }
+    
+    public interface Subscriber<T> {
+        void onValue(T value);
+        void onError(Exception error);
+    }
+    
+    public interface Subscription {
+        void cancel();
+    }
+    
+    private final DatabaseReference root;
+    private final Map<String, Channel<?>> channels = new HashMap<>();
+    
+    public ListenerMultiplexer(DatabaseReference root) {
+        this.root = root;
+    }
+    
+    // Every subscriber of a path must pass the same decoder instance
+    public <T> Subscription subscribe(String path, Decoder<T> decoder, Subscriber<T> subscriber) {
+        Channel<T> channel;
+        T latest;
+        synchronized (this) {
+            @SuppressWarnings("unchecked")
+            Channel<T> existing = (Channel<T>) channels.get(path);
+            if (existing != null && existing.decoder != decoder) {
+                throw new IllegalArgumentException("Path " + path + " is already decoded differently");
+            }
+            channel = existing;
+            if (channel == null) {
+                channel = new Channel<>(path, decoder);
+                channels.put(path, channel);
+                channel.subscribers.add(subscriber);
+                root.child(path).addValueEventListener(channel);
+            } else {
+                channel.subscribers.add(subscriber);
+            }
+            latest = channel.latest;
+        }
+        if (latest != null) {
+            subscriber.onValue(latest);
+        }
+        
+        Channel<T> subscribed = channel;
+        return () -> unsubscribe(subscribed, subscriber);
+    }
+    
+    public synchronized int listenerCount() {
+        return channels.size();
+    }
+    
+    public synchronized int subscriberCount(String path) {
+        Channel<?> channel = channels.get(path);
+        return channel != null ? channel.subscribers.size() : 0;
+    }
+    
+    private synchronized void unsubscribe(Channel<?> channel, Subscriber<?> subscriber) {
+        if (!channel.subscribers.remove(subscriber) || !channel.subscribers.isEmpty()) {
+            return;
+        }
+        if (channels.get(channel.path) == channel) {
+            channels.remove(channel.path);
+            root.child(channel.path).removeEventListener(channel);
+        }
+    }
+    
+    private synchronized void drop(Channel<?> channel) {
+        if (channels.get(channel.path) == channel) {
+            channels.remove(channel.path);
+        }
+    }
+    
+    private class Channel<T> implements ValueEventListener {
+        final String path;
+        final Decoder<T> decoder;
+        final List<Subscriber<T>> subscribers = new CopyOnWriteArrayList<>();
+        volatile T latest;
+        
+        Channel(String path, Decoder<T> decoder) {
+            this.path = path;
+            this.decoder = decoder;
+        }
+        
+        @Override
+        public void onDataChange(DataSnapshot dataSnapshot) {
+            T value;
+            try {
+                value = decoder.decode(dataSnapshot);
+            } catch (Exception e) {
+                for (Subscriber<T> subscriber : subscribers) {
+                    subscriber.onError(e);
+                }
+                return;
+            }
+            if (value == null) {
+                return;
+            }
+            latest = value;
+            for (Subscriber<T> subscriber : subscribers) {
+                subscriber.onValue(value);
+            }
+        }
+        
+        @Override
+        public void onCancelled(DatabaseError databaseError) {
+            // Firebase has already removed the listener; the next subscribe re-attaches
+            drop(this);
+            Exception error = databaseError.toException();
+            for (Subscriber<T> subscriber : subscribers) {
+                subscriber.onError(error);
+            }
+        }
+    }
+} 
\ No newline at end of file
@@ -10,12 +10,20 @@ import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.cardview.widget.CardView;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
-import com.google.firebase.FirebaseApp;
-import com.google.firebase.database.FirebaseDatabase;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
-public class MainActivity extends AppCompatActivity implements FirebaseApiService.EnvironmentalDataListener {
+public class MainActivity extends AppCompatActivity implements FirebaseApiService.EnvironmentalDataListener,
+        AnomalyDetector.Listener {
+    
+    private static final long DROPOUT_CHECK_INTERVAL = 30 * 1000L;
+    private static final long FORECAST_HORIZON = 2 * 60 * 60 * 1000L;
+    
+    // Optimal growing band shown on the meters and used for status, alerts and forecast warnings
+    private static final double TEMP_OPTIMAL_MIN = 25;
+    private static final double TEMP_OPTIMAL_MAX = 28;
+    private static final double HUMIDITY_OPTIMAL_MIN = 60;
+    private static final double HUMIDITY_OPTIMAL_MAX = 80;
     
     private CircularMeterView temperatureMeter;
     private CircularMeterView humidityMeter;
@@ -35,31 +43,28 @@ public class MainActivity extends AppCompatActivity implements FirebaseApiServic
     private Handler mainHandler;
     private ExecutorService executorService;
     private boolean isRealTimeListening = false;
+    private boolean forecastWarningShown = false;
+    private boolean conditionWarningShown = false;
+    
+    private final Runnable dropoutCheck = new Runnable() {
+        @Override
+        public void run() {
+            firebaseApiService.getAnomalyDetector().checkTimeout(System.currentTimeMillis());
+            mainHandler.postDelayed(this, DROPOUT_CHECK_INTERVAL);
+        }
+    };
     
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
         
-        // Initialize Firebase
-        initializeFirebase();
-        
         initializeViews();
         setupServices();
         setupClickListeners();
         startRealTimeUpdates();
     }
     
-    private void initializeFirebase() {
-        // Initialize Firebase if not already done
-        if (FirebaseApp.getApps(this).isEmpty()) {
-            FirebaseApp.initializeApp(this);
-        }
-        
-        // Enable offline persistence
-        FirebaseDatabase.getInstance().setPersistenceEnabled(true);
-    }
-    
     private void initializeViews() {
         temperatureMeter = findViewById(R.id.temperatureMeter);
         humidityMeter = findViewById(R.id.humidityMeter);
@@ -82,14 +87,14 @@ public class MainActivity extends AppCompatActivity implements FirebaseApiServic
     private void setupMeters() {
         // Temperature meter (0-50°C)
         temperatureMeter.setRange(0, 50);
-        temperatureMeter.setOptimalRange(25, 28);
+        temperatureMeter.setOptimalRange((float) TEMP_OPTIMAL_MIN, (float) TEMP_OPTIMAL_MAX);
         temperatureMeter.setMeterColor(getResources().getColor(R.color.dark_green));
         temperatureMeter.setProgressColor(getResources().getColor(R.color.bright_green));
         temperatureMeter.setUnit("°C");
         
         // Humidity meter (0-100%)
         humidityMeter.setRange(0, 100);
-        humidityMeter.setOptimalRange(60, 80);
+        humidityMeter.setOptimalRange((float) HUMIDITY_OPTIMAL_MIN, (float) HUMIDITY_OPTIMAL_MAX);
         humidityMeter.setMeterColor(getResources().getColor(R.color.dark_green));
         humidityMeter.setProgressColor(getResources().getColor(R.color.bright_green));
         humidityMeter.setUnit("%");
@@ -103,7 +108,7 @@ public class MainActivity extends AppCompatActivity implements FirebaseApiServic
     }
     
     private void setupServices() {
-        firebaseApiService = new FirebaseApiService();
+        firebaseApiService = MushroomTechApp.from(this).getFirebaseApiService();
         mainHandler = new Handler(getMainLooper());
         executorService = Executors.newFixedThreadPool(3);
     }
@@ -118,7 +123,9 @@ public class MainActivity extends AppCompatActivity implements FirebaseApiServic
     
     private void startRealTimeUpdates() {
         if (!isRealTimeListening) {
+            firebaseApiService.getAnomalyDetector().setListener(this);
             firebaseApiService.listenForRealTimeUpdates(this);
+            mainHandler.postDelayed(dropoutCheck, DROPOUT_CHECK_INTERVAL);
             isRealTimeListening = true;
             showToast("Connected to Firebase - Real-time updates enabled");
         }
@@ -129,6 +136,8 @@ public class MainActivity extends AppCompatActivity implements FirebaseApiServic
         mainHandler.post(() -> {
             if (data != null) {
                 updateUI(data);
+                checkConditions();
+                checkForecast();
             } else {
                 showConnectionError();
             }
@@ -143,24 +152,110 @@ public class MainActivity extends AppCompatActivity implements FirebaseApiServic
         });
     }
     
+    // Alerts on the 5-minute means rather than the latest reading, so a single noisy DHT22
+    // read neither raises nor clears the warning
+    private void checkConditions() {
+        EnvironmentalStats stats = firebaseApiService.getLiveStats();
+        SlidingWindowStats recent = stats.get(EnvironmentalStats.Window.FIVE_MINUTES);
+        double temperatureMean = recent.getTemperatureMean();
+        double humidityMean = recent.getHumidityMean();
+        boolean temperatureOk = Double.isNaN(temperatureMean)
+                || stats.isTemperatureOptimal(TEMP_OPTIMAL_MIN, TEMP_OPTIMAL_MAX);
+        boolean humidityOk = Double.isNaN(humidityMean)
+                || stats.isHumidityOptimal(HUMIDITY_OPTIMAL_MIN, HUMIDITY_OPTIMAL_MAX);
+        
+        if (temperatureOk && humidityOk) {
+            conditionWarningShown = false;
+            return;
+        }
+        if (conditionWarningShown) {
+            return;
+        }
+        conditionWarningShown = true;
+        
+        if (!temperatureOk) {
+            showToast(String.format("⚠️ Temperature averaged %.1f°C over 5 min, outside %.0f-%.0f°C",
+                    temperatureMean, TEMP_OPTIMAL_MIN, TEMP_OPTIMAL_MAX));
+        } else {
+            showToast(String.format("⚠️ Humidity averaged %.1f%% over 5 min, outside %.0f-%.0f%%",
+                    humidityMean, HUMIDITY_OPTIMAL_MIN, HUMIDITY_OPTIMAL_MAX));
+        }
+    }
+    
+    private void checkForecast() {
+        HoltWintersForecaster forecaster = firebaseApiService.getForecaster();
+        if (!forecaster.isReady()) {
+            return;
+        }
+        
+        int temperatureMinutes = forecaster.minutesUntilTemperatureOutside(
+                TEMP_OPTIMAL_MIN, TEMP_OPTIMAL_MAX, FORECAST_HORIZON);
+        int humidityMinutes = forecaster.minutesUntilHumidityOutside(
+                HUMIDITY_OPTIMAL_MIN, HUMIDITY_OPTIMAL_MAX, FORECAST_HORIZON);
+        
+        if (temperatureMinutes < 0 && humidityMinutes < 0) {
+            forecastWarningShown = false;
+            return;
+        }
+        if (forecastWarningShown) {
+            return;
+        }
+        forecastWarningShown = true;
+        
+        if (temperatureMinutes >= 0 && (humidityMinutes < 0 || temperatureMinutes <= humidityMinutes)) {
+            showToast(String.format("🔮 Temperature expected to leave %.0f-%.0f°C in ~%d min",
+                    TEMP_OPTIMAL_MIN, TEMP_OPTIMAL_MAX, temperatureMinutes));
+        } else {
+            showToast(String.format("🔮 Humidity expected to leave %.0f-%.0f%% in ~%d min",
+                    HUMIDITY_OPTIMAL_MIN, HUMIDITY_OPTIMAL_MAX, humidityMinutes));
+        }
+    }
+    
+    @Override
+    public void onAnomaly(int channel, int type, long timestamp, double value, double score) {
+        String sensor = channel == AnomalyDetector.CHANNEL_TEMPERATURE ? "Temperature" : "Humidity";
+        String message;
+        switch (type) {
+            case AnomalyDetector.TYPE_DROPOUT:
+                message = "⚠️ " + sensor + " sensor stopped reporting";
+                break;
+            case AnomalyDetector.TYPE_SPIKE:
+                message = "⚠️ " + sensor + " spike: " + String.format("%.1f", value);
+                break;
+            case AnomalyDetector.TYPE_DRIFT_UP:
+                message = "📈 " + sensor + " is drifting up";
+                break;
+            default:
+                message = channel == AnomalyDetector.CHANNEL_TEMPERATURE
+                        ? "📉 Temperature is drifting down - check the heater"
+                        : "📉 Humidity is drifting down - check the humidifier";
+                break;
+        }
+        mainHandler.post(() -> showToast(message));
+    }
+    
     private void updateUI(EnvironmentalData data) {
         try {
             // Update temperature
-            if (data.temperature != 0) {
+            if (!Double.isNaN(data.temperature) && data.temperature != 0) {
                 temperatureMeter.setValue((float) data.temperature);
                 temperatureValue.setText(String.format("%.1f°C", data.temperature));
             }
             
             // Update humidity
-            if (data.humidity != 0) {
+            if (!Double.isNaN(data.humidity) && data.humidity != 0) {
                 humidityMeter.setValue((float) data.humidity);
                 humidityValue.setText(String.format("%.1f%%", data.humidity));
             }
             
-            // Update CO2 (simulated for now)
-            float co2Level = 400 + (float)(Math.random() * 200);
-            co2Meter.setValue(co2Level);
-            co2Value.setText(String.format("%.0f ppm", co2Level));
+            // Update CO2 once the Pi publishes it
+            double co2Level = data.getChannelValue(ChannelRegistry.CO2);
+            if (!Double.isNaN(co2Level)) {
+                co2Meter.setValue((float) co2Level);
+                co2Value.setText(String.format("%.0f ppm", co2Level));
+            } else {
+                co2Value.setText("-- ppm");
+            }
             
             // Update system status
             updateSystemStatus(data);
@@ -183,6 +278,19 @@ public class MainActivity extends AppCompatActivity implements FirebaseApiServic
             status.append("Standby\n");
         }
         
+        EnvironmentalStats stats = firebaseApiService.getLiveStats();
+        SlidingWindowStats recent = stats.get(EnvironmentalStats.Window.FIVE_MINUTES);
+        double temperatureMean = recent.getTemperatureMean();
+        if (!Double.isNaN(temperatureMean)) {
+            status.append(String.format("🌡️ Temperature: %.1f°C (5 min avg) - %s\n", temperatureMean,
+                    stats.isTemperatureOptimal(TEMP_OPTIMAL_MIN, TEMP_OPTIMAL_MAX) ? "Optimal" : "Out of range"));
+        }
+        double humidityMean = recent.getHumidityMean();
+        if (!Double.isNaN(humidityMean)) {
+            status.append(String.format("💧 Humidity: %.1f%% (5 min avg) - %s\n", humidityMean,
+                    stats.isHumidityOptimal(HUMIDITY_OPTIMAL_MIN, HUMIDITY_OPTIMAL_MAX) ? "Optimal" : "Out of range"));
+        }
+        
         if (data.heaterStatus) {
             status.append("🔥 Heater: ON\n");
         }
@@ -195,9 +303,24 @@ public class MainActivity extends AppCompatActivity implements FirebaseApiServic
         
         // ESP32 connection status
         if (data.esp32Connected) {
-            status.append("📡 ESP32: Connected\n");
+            status.append("📡 ESP32: Connected");
         } else {
-            status.append("📡 ESP32: Disconnected\n");
+            status.append("📡 ESP32: Disconnected");
+        }
+        double uptime = firebaseApiService.getAvailability().uptime(
+                firebaseApiService.getDeviceId(), data.timestamp - SensorRollups.DAY, data.timestamp + 1);
+        if (!Double.isNaN(uptime)) {
+            status.append(String.format(" (%.1f%% up, 24h)", uptime * 100));
+        }
+        status.append("\n");
+        
+        WaterLevelChannel waterLevel = firebaseApiService.getWaterLevel();
+        int tankState = waterLevel.latestState();
+        if (tankState != WaterLevelChannel.STATE_UNKNOWN) {
+            int pumpTriggers = waterLevel.eventCount(WaterLevelChannel.EVENT_PUMP_TRIGGER,
+                    data.timestamp - SensorRollups.DAY, data.timestamp + 1);
+            status.append("🪣 Water Tank: ").append(WaterLevelChannel.stateName(tankState))
+                    .append(" (").append(pumpTriggers).append(" pump triggers, 24h)\n");
         }
         
         systemStatus.setText(status.toString());
@@ -254,8 +377,9 @@ public class MainActivity extends AppCompatActivity implements FirebaseApiServic
     }
     
     private void openDataAnalysis() {
-        // Open data analysis activity
-        showToast("Data analysis feature coming soon");
+        Intent intent = new Intent(this, DataAnalysisActivity.class);
+        intent.putExtra(DataAnalysisActivity.EXTRA_DEVICE_ID, firebaseApiService.getDeviceId());
+        startActivity(intent);
     }
     
     private void openAIChat() {
@@ -284,8 +408,12 @@ public class MainActivity extends AppCompatActivity implements FirebaseApiServic
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        if (mainHandler != null) {
+            mainHandler.removeCallbacks(dropoutCheck);
+        }
         if (firebaseApiService != null) {
-            firebaseApiService.stopListening();
+            firebaseApiService.getAnomalyDetector().setListener(null);
+            firebaseApiService.stopListening(this);
         }
         if (executorService != null) {
             executorService.shutdown();
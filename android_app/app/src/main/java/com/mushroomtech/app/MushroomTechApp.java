@@ -0,0 +1,135 @@
+package com.mushroomtech.app;
+
+import android.app.Application;
+import android.content.Context;
+import android.util.Log;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.database.FirebaseDatabase;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Process-wide owner of the Firebase repository, the on-device sensor log and history sync,
+// so they are created once per process instead of once per Activity
+public class MushroomTechApp extends Application {
+    
+    private static final String TAG = "MushroomTechApp";
+    static final String SENSOR_LOG_DIR = "sensor_log";
+    // Enough for the forecaster's first full season even with a few gaps
+    private static final long FORECAST_WARM_UP = 2 * SensorRollups.DAY;
+    
+    private FirebaseApiService firebaseApiService;
+    private HistorySyncEngine historySyncEngine;
+    // Single thread keeps log appends in arrival order
+    private final ExecutorService logExecutor = Executors.newSingleThreadExecutor();
+    private SensorLog sensorLog;
+    // Completes once the log is open, for readers on other threads
+    private final CompletableFuture<SensorLog> sensorLogReady = new CompletableFuture<>();
+    
+    public static MushroomTechApp from(Context context) {
+        return (MushroomTechApp) context.getApplicationContext();
+    }
+    
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        if (FirebaseApp.getApps(this).isEmpty()) {
+            FirebaseApp.initializeApp(this);
+        }
+        // Must run before the first database access, so only here
+        FirebaseDatabase.getInstance().setPersistenceEnabled(true);
+        
+        firebaseApiService = new FirebaseApiService(this);
+        firebaseApiService.setReadingSink(this::persistReading);
+        historySyncEngine = new HistorySyncEngine(this);
+        // Synced history is rolled up like live data, so the coarse tiers reach back past
+        // what the app itself has seen
+        SensorRollups rollups = firebaseApiService.getRollups();
+        historySyncEngine.setPageListener((deviceId, page) -> rollups.addAll(page));
+        firebaseApiService.resolveDeviceId().thenAccept(deviceId -> {
+            // Queued ahead of any sync on the store thread, so pages fetched later are not
+            // rolled up twice
+            historySyncEngine.readLocal(deviceId, Long.MIN_VALUE, Long.MAX_VALUE).thenAccept(rollups::addAll);
+            warmUpForecaster(deviceId);
+            historySyncEngine.startOpportunisticSync(deviceId);
+        });
+        
+        logExecutor.execute(() -> {
+            try {
+                sensorLog = new SensorLog(new File(getFilesDir(), SENSOR_LOG_DIR));
+                sensorLogReady.complete(sensorLog);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to open sensor log", e);
+                sensorLogReady.completeExceptionally(e);
+            }
+        });
+    }
+    
+    // Replays the last couple of days into the forecaster: the live log where it reaches,
+    // synced Pi history before that. Runs on the log thread, after appends already queued.
+    private void warmUpForecaster(String deviceId) {
+        long from = System.currentTimeMillis() - FORECAST_WARM_UP;
+        historySyncEngine.readLocal(deviceId, from, Long.MAX_VALUE)
+                .exceptionally(error -> new HistoricalData())
+                .thenCombineAsync(sensorLogReady.handle((log, error) -> log), (synced, log) -> {
+                    long liveFirst = log != null ? log.getFirstTimestamp() : -1;
+                    long liveStart = liveFirst >= 0 ? Math.max(from, liveFirst) : Long.MAX_VALUE;
+                    HistoricalData history = new HistoricalData();
+                    long[] timestamps = synced.getTimestamps();
+                    for (int i = 0; i < synced.getDataPointCount() && timestamps[i] < liveStart; i++) {
+                        history.add(timestamps[i], synced.getTemperatures()[i], synced.getHumidities()[i],
+                                synced.getRelayMasks()[i]);
+                    }
+                    if (log != null) {
+                        log.scan(from, Long.MAX_VALUE, history::add);
+                    }
+                    return history;
+                }, logExecutor)
+                .thenAccept(firebaseApiService.getForecaster()::warmUp)
+                .exceptionally(error -> {
+                    Log.e(TAG, "Failed to warm up forecaster", error);
+                    return null;
+                });
+    }
+    
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            logExecutor.execute(() -> {
+                if (sensorLog != null) {
+                    sensorLog.flush();
+                }
+            });
+        }
+    }
+    
+    public FirebaseApiService getFirebaseApiService() {
+        return firebaseApiService;
+    }
+    
+    public HistorySyncEngine getHistorySyncEngine() {
+        return historySyncEngine;
+    }
+    
+    // The one handle on the live log. Scans take its lock, so readers share it with the
+    // appender instead of mapping the segments a second time.
+    public CompletableFuture<SensorLog> getSensorLog() {
+        return sensorLogReady;
+    }
+    
+    private void persistReading(EnvironmentalData data) {
+        logExecutor.execute(() -> {
+            if (sensorLog == null) {
+                return;
+            }
+            try {
+                sensorLog.append(data);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to persist reading", e);
+            }
+        });
+    }
+} 
\ No newline at end of file
@@ -0,0 +1,226 @@
+package com.mushroomtech.app;
+
+import java.util.Arrays;
+
+// Merging t-digest (Dunning & Ertl) on primitive arrays. Centroids are kept small near the
+// tails, so p5/p95 stay accurate. A sketch holds at most about compression / 2 centroids
+// however many values went in, and merging sketches keeps the same bound. Not thread-safe;
+// SensorRollups guards its sketches with the tier lock.
+public class QuantileSketch {
+    
+    public static final int DEFAULT_COMPRESSION = 50;
+    
+    private final double compression;
+    // Centroids [0, merged) are compressed and sorted; [merged, size) are pending raw
+    // values or centroids from other sketches
+    private float[] means;
+    private float[] weights;
+    private int size;
+    private int merged;
+    private double totalWeight;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+    
+    public QuantileSketch() {
+        this(DEFAULT_COMPRESSION);
+    }
+    
+    public QuantileSketch(int compression) {
+        this.compression = compression;
+        this.means = new float[compression];
+        this.weights = new float[compression];
+    }
+    
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        totalWeight++;
+        append((float) value, 1f);
+        min = Double.isNaN(min) ? value : Math.min(min, value);
+        max = Double.isNaN(max) ? value : Math.max(max, value);
+    }
+    
+    public void merge(QuantileSketch other) {
+        if (other.totalWeight == 0) {
+            return;
+        }
+        totalWeight += other.totalWeight;
+        min = Double.isNaN(min) ? other.min : Math.min(min, other.min);
+        max = Double.isNaN(max) ? other.max : Math.max(max, other.max);
+        for (int i = 0; i < other.size; i++) {
+            append(other.means[i], other.weights[i]);
+        }
+    }
+    
+    // Value below which the given fraction of the input falls; NaN when empty
+    public double quantile(double q) {
+        compress();
+        if (size == 0) {
+            return Double.NaN;
+        }
+        if (size == 1) {
+            return means[0];
+        }
+        double target = Math.max(0, Math.min(1, q)) * totalWeight;
+        
+        // Before the first centroid's centre, interpolate from the exact minimum
+        double firstHalf = weights[0] / 2.0;
+        if (target < firstHalf) {
+            return min + (means[0] - min) * target / firstHalf;
+        }
+        double lastHalf = weights[size - 1] / 2.0;
+        if (target > totalWeight - lastHalf) {
+            return max - (max - means[size - 1]) * (totalWeight - target) / lastHalf;
+        }
+        
+        // Between the centres of two neighbouring centroids
+        double centre = firstHalf;
+        for (int i = 0; i < size - 1; i++) {
+            double gap = weights[i] / 2.0 + weights[i + 1] / 2.0;
+            if (target <= centre + gap) {
+                return means[i] + (means[i + 1] - means[i]) * (target - centre) / gap;
+            }
+            centre += gap;
+        }
+        return means[size - 1];
+    }
+    
+    public long getCount() {
+        return (long) totalWeight;
+    }
+    
+    public double getMin() {
+        return min;
+    }
+    
+    public double getMax() {
+        return max;
+    }
+    
+    public int getCentroidCount() {
+        compress();
+        return size;
+    }
+    
+    public void clear() {
+        size = 0;
+        merged = 0;
+        totalWeight = 0;
+        min = Double.NaN;
+        max = Double.NaN;
+    }
+    
+    // Compresses and drops spare capacity, for sketches that will not grow any more
+    public void trim() {
+        compress();
+        if (means.length > size) {
+            means = Arrays.copyOf(means, size);
+            weights = Arrays.copyOf(weights, size);
+        }
+    }
+    
+    private void append(float mean, float weight) {
+        if (size == means.length) {
+            if (size - merged >= 4 * compression) {
+                compress();
+            }
+            if (size == means.length) {
+                int capacity = Math.max((int) compression, size * 2);
+                means = Arrays.copyOf(means, capacity);
+                weights = Arrays.copyOf(weights, capacity);
+            }
+        }
+        means[size] = mean;
+        weights[size] = weight;
+        size++;
+    }
+    
+    private void compress() {
+        if (merged == size) {
+            return;
+        }
+        sort(means, weights, 0, size - 1);
+        
+        int out = 0;
+        double soFar = 0;
+        double mean = means[0];
+        double weight = weights[0];
+        double kLeft = scale(0);
+        for (int i = 1; i < size; i++) {
+            double proposed = weight + weights[i];
+            if (scale((soFar + proposed) / totalWeight) - kLeft <= 1) {
+                mean += (means[i] - mean) * weights[i] / proposed;
+                weight = proposed;
+            } else {
+                means[out] = (float) mean;
+                weights[out] = (float) weight;
+                out++;
+                soFar += weight;
+                kLeft = scale(soFar / totalWeight);
+                mean = means[i];
+                weight = weights[i];
+            }
+        }
+        means[out] = (float) mean;
+        weights[out] = (float) weight;
+        size = out + 1;
+        merged = size;
+    }
+    
+    // k1 scale function: centroid size shrinks towards q = 0 and q = 1
+    private double scale(double q) {
+        return compression / (2 * Math.PI) * Math.asin(2 * Math.min(q, 1) - 1);
+    }
+    
+    // Sorts keys[low..high] ascending, moving values along with them
+    private static void sort(float[] keys, float[] values, int low, int high) {
+        while (high - low > 16) {
+            float pivot = keys[(low + high) >>> 1];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(keys, values, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            // Recurse into the smaller half to bound the stack depth
+            if (j - low < high - i) {
+                sort(keys, values, low, j);
+                low = i;
+            } else {
+                sort(keys, values, i, high);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            float key = keys[i];
+            float value = values[i];
+            int j = i - 1;
+            while (j >= low && keys[j] > key) {
+                keys[j + 1] = keys[j];
+                values[j + 1] = values[j];
+                j--;
+            }
+            keys[j + 1] = key;
+            values[j + 1] = value;
+        }
+    }
+    
+    private static void swap(float[] keys, float[] values, int i, int j) {
+        float key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        float value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+} 
\ No newline at end of file
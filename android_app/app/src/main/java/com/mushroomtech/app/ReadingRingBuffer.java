@@ -0,0 +1,182 @@
+package com.mushroomtech.app;
+
+// Fixed-capacity columnar time series of live readings. Samples live in parallel
+// primitive arrays plus a packed 4-bit-per-sample relay bitset, so appending never
+// allocates. When full, the oldest sample is overwritten.
+public class ReadingRingBuffer {
+    
+    // 3 days of 5-second samples, about 1.3 MB
+    public static final int DEFAULT_CAPACITY = 3 * 24 * 60 * 12;
+    
+    private static final int BITS_PER_SAMPLE = EnvironmentalData.RELAY_COUNT;
+    private static final int SAMPLES_PER_WORD = 64 / BITS_PER_SAMPLE;
+    private static final long SAMPLE_MASK = (1L << BITS_PER_SAMPLE) - 1;
+    
+    private final int capacity;
+    private final long[] timestamps;
+    private final double[] temperatures;
+    private final double[] humidities;
+    private final long[] relayBits;
+    
+    private int head; // physical index of the oldest sample
+    private int size;
+    private long skippedDuplicates;
+    
+    public ReadingRingBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+    
+    public ReadingRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.timestamps = new long[capacity];
+        this.temperatures = new double[capacity];
+        this.humidities = new double[capacity];
+        this.relayBits = new long[(capacity + SAMPLES_PER_WORD - 1) / SAMPLES_PER_WORD];
+    }
+    
+    public boolean append(EnvironmentalData data) {
+        return append(data.timestamp, data.temperature, data.humidity, data.getRelayMask());
+    }
+    
+    // Returns false when the sample repeats the newest one or is older than it
+    public synchronized boolean append(long timestamp, double temperature, double humidity, int relayMask) {
+        if (size > 0) {
+            int last = physical(size - 1);
+            if (timestamp < timestamps[last]) {
+                return false;
+            }
+            if (Double.compare(temperatures[last], temperature) == 0
+                    && Double.compare(humidities[last], humidity) == 0
+                    && relayMaskAtPhysical(last) == (relayMask & SAMPLE_MASK)) {
+                skippedDuplicates++;
+                return false;
+            }
+        }
+        
+        int slot;
+        if (size < capacity) {
+            slot = physical(size);
+            size++;
+        } else {
+            slot = head;
+            head = (head + 1) % capacity;
+        }
+        
+        timestamps[slot] = timestamp;
+        temperatures[slot] = temperature;
+        humidities[slot] = humidity;
+        
+        int word = slot / SAMPLES_PER_WORD;
+        int shift = (slot % SAMPLES_PER_WORD) * BITS_PER_SAMPLE;
+        relayBits[word] = (relayBits[word] & ~(SAMPLE_MASK << shift)) | ((relayMask & SAMPLE_MASK) << shift);
+        return true;
+    }
+    
+    public synchronized int size() {
+        return size;
+    }
+    
+    public int capacity() {
+        return capacity;
+    }
+    
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+    
+    public synchronized long getSkippedDuplicates() {
+        return skippedDuplicates;
+    }
+    
+    public synchronized void clear() {
+        head = 0;
+        size = 0;
+        skippedDuplicates = 0;
+    }
+    
+    // Logical index 0 is the oldest sample, size() - 1 the newest
+    public synchronized long timestampAt(int index) {
+        return timestamps[checkedPhysical(index)];
+    }
+    
+    public synchronized double temperatureAt(int index) {
+        return temperatures[checkedPhysical(index)];
+    }
+    
+    public synchronized double humidityAt(int index) {
+        return humidities[checkedPhysical(index)];
+    }
+    
+    public synchronized int relayMaskAt(int index) {
+        return relayMaskAtPhysical(checkedPhysical(index));
+    }
+    
+    public boolean isRelayOn(int index, int relay) {
+        return (relayMaskAt(index) & relay) != 0;
+    }
+    
+    // First logical index with a timestamp >= the given time, or size() if none
+    public synchronized int indexOfTime(long timestamp) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[physical(mid)] < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    // Copies samples [from, to) into the given columns; pass null to skip a column
+    public synchronized int copyRange(int from, int to, long[] timestampsOut, double[] temperaturesOut,
+                                      double[] humiditiesOut, int[] relayMasksOut) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") of " + size);
+        }
+        int count = to - from;
+        int start = physical(from);
+        int firstPart = Math.min(count, capacity - start);
+        
+        if (timestampsOut != null) {
+            System.arraycopy(timestamps, start, timestampsOut, 0, firstPart);
+            System.arraycopy(timestamps, 0, timestampsOut, firstPart, count - firstPart);
+        }
+        if (temperaturesOut != null) {
+            System.arraycopy(temperatures, start, temperaturesOut, 0, firstPart);
+            System.arraycopy(temperatures, 0, temperaturesOut, firstPart, count - firstPart);
+        }
+        if (humiditiesOut != null) {
+            System.arraycopy(humidities, start, humiditiesOut, 0, firstPart);
+            System.arraycopy(humidities, 0, humiditiesOut, firstPart, count - firstPart);
+        }
+        if (relayMasksOut != null) {
+            for (int i = 0; i < count; i++) {
+                relayMasksOut[i] = relayMaskAtPhysical(physical(from + i));
+            }
+        }
+        return count;
+    }
+    
+    private int relayMaskAtPhysical(int slot) {
+        int shift = (slot % SAMPLES_PER_WORD) * BITS_PER_SAMPLE;
+        return (int) ((relayBits[slot / SAMPLES_PER_WORD] >>> shift) & SAMPLE_MASK);
+    }
+    
+    private int physical(int index) {
+        int slot = head + index;
+        return slot >= capacity ? slot - capacity : slot;
+    }
+    
+    private int checkedPhysical(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + size);
+        }
+        return physical(index);
+    }
+} 
\ No newline at end of file
@@ -0,0 +1,152 @@
+package com.mushroomtech.app;
+
+import java.util.TimeZone;
+
+// Run-length encoded relay history: for every relay, the list of [start, end) intervals it
+// was on, plus a prefix sum of on-time. State-at-time, on-time and cycle counts over any
+// range are binary searches; a month of 5-second samples collapses to one pair of longs
+// per switching cycle.
+public class RelayTimeline {
+    
+    // Readings further apart than this end the current run (app or Pi offline)
+    private static final long MAX_SAMPLE_GAP = 5 * SensorRollups.MINUTE;
+    // On-periods shorter than this count as short cycles
+    public static final long DEFAULT_SHORT_CYCLE = 5 * SensorRollups.MINUTE;
+    
+    // Nameplate power used for energy estimates, indexed by relay bit. The heater wattage
+    // is an assumption for a 240 V element; the water pump is the 1 HP (746 W) unit.
+    private static final double[] DEFAULT_RATED_WATTS = {
+            1500,   // heater
+            40,     // humidifier
+            746,    // water pump
+            25      // aquarium pump
+    };
+    
+    // On-intervals of each relay, indexed by relay bit
+    private final IntervalIndex[] tracks = new IntervalIndex[EnvironmentalData.RELAY_COUNT];
+    private final double[] ratedWatts = DEFAULT_RATED_WATTS.clone();
+    private final TimeZone zone = TimeZone.getDefault();
+    private long lastTimestamp = Long.MIN_VALUE;
+    
+    public RelayTimeline() {
+        for (int i = 0; i < tracks.length; i++) {
+            tracks[i] = new IntervalIndex(64);
+        }
+    }
+    
+    public void add(EnvironmentalData data) {
+        add(data.timestamp, data.getRelayMask());
+    }
+    
+    public synchronized void add(long timestamp, int relayMask) {
+        if (timestamp < lastTimestamp) {
+            return;
+        }
+        boolean continuous = lastTimestamp != Long.MIN_VALUE && timestamp - lastTimestamp <= MAX_SAMPLE_GAP;
+        for (int i = 0; i < tracks.length; i++) {
+            IntervalIndex track = tracks[i];
+            if (track.isOpen() && continuous) {
+                // The run lasted at least until this reading, whatever the new state is
+                track.extendTo(timestamp);
+            }
+            if ((relayMask & (1 << i)) == 0) {
+                track.close();
+            } else if (!track.isOpen() || !continuous) {
+                track.open(timestamp);
+            }
+        }
+        lastTimestamp = timestamp;
+    }
+    
+    public void addAll(HistoricalData history) {
+        long[] timestamps = history.getTimestamps();
+        byte[] relayMasks = history.getRelayMasks();
+        for (int i = 0; i < history.getDataPointCount(); i++) {
+            add(timestamps[i], relayMasks[i]);
+        }
+    }
+    
+    // relay is one of the EnvironmentalData.RELAY_* masks
+    public synchronized boolean isOnAt(int relay, long timestamp) {
+        return track(relay).contains(timestamp);
+    }
+    
+    public synchronized long onMillis(int relay, long from, long to) {
+        return track(relay).coveredMillis(from, to);
+    }
+    
+    public double dutyCycle(int relay, long from, long to) {
+        return to > from ? (double) onMillis(relay, from, to) / (to - from) : 0;
+    }
+    
+    // Number of times the relay switched on within [from, to)
+    public synchronized int cycleCount(int relay, long from, long to) {
+        return track(relay).startCount(from, to);
+    }
+    
+    public synchronized int shortCycleCount(int relay, long from, long to, long minOnMillis) {
+        return track(relay).shortCount(from, to, minOnMillis);
+    }
+    
+    public synchronized int intervalCount(int relay) {
+        return track(relay).size();
+    }
+    
+    public synchronized void setRatedWatts(int relay, double watts) {
+        ratedWatts[Integer.numberOfTrailingZeros(relay)] = watts;
+    }
+    
+    public synchronized double energyKwh(int relay, long from, long to) {
+        return onMillis(relay, from, to) / (double) SensorRollups.HOUR * ratedWatts[Integer.numberOfTrailingZeros(relay)] / 1000;
+    }
+    
+    // Per local day in [from, to): on-time, duty cycle, cycles, short cycles and energy
+    public synchronized DailyReport dailyReport(int relay, long from, long to) {
+        long firstDay = SensorRollups.localBucket(from, SensorRollups.DAY, zone);
+        int days = (int) Math.max(0, SensorRollups.localBucket(to - 1, SensorRollups.DAY, zone) - firstDay + 1);
+        DailyReport report = new DailyReport(days);
+        IntervalIndex track = track(relay);
+        double watts = ratedWatts[Integer.numberOfTrailingZeros(relay)];
+        for (int day = 0; day < days; day++) {
+            // Local days are 23 or 25 hours long across DST changes
+            long dayStart = SensorRollups.localBucketStart(firstDay + day, SensorRollups.DAY, zone);
+            long dayEnd = SensorRollups.localBucketStart(firstDay + day + 1, SensorRollups.DAY, zone);
+            long start = Math.max(dayStart, from);
+            long end = Math.min(dayEnd, to);
+            long on = track.coveredMillis(start, end);
+            report.dayStarts[day] = dayStart;
+            report.onMillis[day] = on;
+            report.dutyCycles[day] = end > start ? (double) on / (end - start) : 0;
+            report.cycles[day] = track.startCount(start, end);
+            report.shortCycles[day] = track.shortCount(start, end, DEFAULT_SHORT_CYCLE);
+            report.energyKwh[day] = on / (double) SensorRollups.HOUR * watts / 1000;
+        }
+        return report;
+    }
+    
+    private IntervalIndex track(int relay) {
+        return tracks[Integer.numberOfTrailingZeros(relay)];
+    }
+    
+    public static class DailyReport {
+        public final long[] dayStarts;
+        public final long[] onMillis;
+        public final double[] dutyCycles;
+        public final int[] cycles;
+        public final int[] shortCycles;
+        public final double[] energyKwh;
+        
+        DailyReport(int days) {
+            dayStarts = new long[days];
+            onMillis = new long[days];
+            dutyCycles = new double[days];
+            cycles = new int[days];
+            shortCycles = new int[days];
+            energyKwh = new double[days];
+        }
+        
+        public int size() {
+            return dayStarts.length;
+        }
+    }
+} 
\ No newline at end of file
@@ -0,0 +1,317 @@
+package com.mushroomtech.app;
+
+import android.os.Handler;
+import android.os.Looper;
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+// Live state of one room's device_status node, kept up to date field by field. A
+// ChildEventListener on each node the registry decodes (sensor_data, relay_status,
+// relay_states, thresholds, esp32_status, ...) applies only the children that changed, so
+// the work per update follows what changed rather than the size of the node. Every changed
+// channel is reported as a Change; once the changes of one write have been applied a single
+// EnvironmentalData snapshot is committed. The Pi's top-level timestamp is the heartbeat: it
+// commits a snapshot even when no value moved, without decoding anything.
+// Firebase delivers on the main thread, and the state is only touched there.
+public class RoomState {
+    
+    public static final int CHANGE_VALUE = 0;
+    public static final int CHANGE_TOGGLE = 1;
+    public static final int CHANGE_TEXT = 2;
+    
+    public interface ChangeListener {
+        void onChange(RoomState room, Change change);
+    }
+    
+    // e.g. "humidity changed 82.0 -> 85.5" or "heater toggled on"
+    public static class Change {
+        public final int kind;
+        public final int channel;
+        public final String name;
+        // NaN when the value appeared or went away
+        public final double previous;
+        public final double current;
+        public final String text;
+        
+        Change(int kind, int channel, String name, double previous, double current, String text) {
+            this.kind = kind;
+            this.channel = channel;
+            this.name = name;
+            this.previous = previous;
+            this.current = current;
+            this.text = text;
+        }
+        
+        public boolean isOn() {
+            return current == 1;
+        }
+        
+        @Override
+        public String toString() {
+            switch (kind) {
+                case CHANGE_TOGGLE:
+                    return name + " toggled " + (isOn() ? "on" : "off");
+                case CHANGE_TEXT:
+                    return name + " changed to " + text;
+                default:
+                    return name + " changed " + previous + " -> " + current;
+            }
+        }
+    }
+    
+    private final String roomId;
+    private final DatabaseReference statusRef;
+    private final SnapshotDecoder decoder;
+    private final Consumer<EnvironmentalData> ingest;
+    private SensorRecord record;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable commit = this::commit;
+    
+    private final List<ListenerMultiplexer.Subscriber<EnvironmentalData>> subscribers = new CopyOnWriteArrayList<>();
+    private final List<ChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+    private final List<Attached> attached = new ArrayList<>();
+    private boolean commitPending;
+    private volatile EnvironmentalData latest;
+    
+    // ingest runs once per committed snapshot, before subscribers see it
+    public RoomState(String roomId, DatabaseReference statusRef, SnapshotDecoder decoder,
+                     Consumer<EnvironmentalData> ingest) {
+        this.roomId = roomId;
+        this.statusRef = statusRef;
+        this.decoder = decoder;
+        this.ingest = ingest;
+        this.record = decoder.newRecord();
+    }
+    
+    // Snapshot subscribers get the latest committed snapshot straight away
+    public ListenerMultiplexer.Subscription subscribe(ListenerMultiplexer.Subscriber<EnvironmentalData> subscriber) {
+        synchronized (this) {
+            subscribers.add(subscriber);
+            attachIfNeeded();
+        }
+        EnvironmentalData current = latest;
+        if (current != null) {
+            subscriber.onValue(current);
+        }
+        return () -> {
+            synchronized (RoomState.this) {
+                subscribers.remove(subscriber);
+                detachIfUnused();
+            }
+        };
+    }
+    
+    public ListenerMultiplexer.Subscription addChangeListener(ChangeListener listener) {
+        synchronized (this) {
+            changeListeners.add(listener);
+            attachIfNeeded();
+        }
+        return () -> {
+            synchronized (RoomState.this) {
+                changeListeners.remove(listener);
+                detachIfUnused();
+            }
+        };
+    }
+    
+    public String getRoomId() {
+        return roomId;
+    }
+    
+    public synchronized int listenerCount() {
+        return attached.size();
+    }
+    
+    public double getValue(int channel) {
+        return record.getValue(channel);
+    }
+    
+    public boolean getFlag(int channel) {
+        return record.getFlag(channel);
+    }
+    
+    public String getText(int channel) {
+        return record.getText(channel);
+    }
+    
+    public EnvironmentalData getLatest() {
+        return latest;
+    }
+    
+    private void attachIfNeeded() {
+        if (!attached.isEmpty()) {
+            return;
+        }
+        for (String parent : decoder.parents()) {
+            FieldListener listener = new FieldListener(parent);
+            statusRef.child(parent).addChildEventListener(listener);
+            attached.add(new Attached(statusRef.child(parent), listener, null));
+        }
+        ValueEventListener heartbeat = new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                if (dataSnapshot.exists()) {
+                    scheduleCommit();
+                }
+            }
+            
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                fail(this, databaseError);
+            }
+        };
+        statusRef.child("timestamp").addValueEventListener(heartbeat);
+        attached.add(new Attached(statusRef.child("timestamp"), null, heartbeat));
+    }
+    
+    private void detachIfUnused() {
+        if (subscribers.isEmpty() && changeListeners.isEmpty()) {
+            detach();
+        }
+    }
+    
+    private void detach() {
+        for (Attached listener : attached) {
+            if (listener.child != null) {
+                listener.ref.removeEventListener(listener.child);
+            } else {
+                listener.ref.removeEventListener(listener.value);
+            }
+        }
+        attached.clear();
+        // A commit queued before the detach would otherwise ingest the empty record below
+        handler.removeCallbacks(commit);
+        commitPending = false;
+        // Re-attaching replays every field as added, so start from empty
+        record = decoder.newRecord();
+        latest = null;
+    }
+    
+    private void apply(String parent, DataSnapshot child, boolean removed) {
+        int channel = decoder.channelOf(parent, child.getKey());
+        if (channel < 0) {
+            return; // Not a registry field, e.g. system_info/uptime
+        }
+        double previous = record.getValue(channel);
+        boolean changed = removed
+                ? decoder.removeChild(parent, child.getKey(), record)
+                : decoder.applyChild(parent, child, record);
+        if (!changed) {
+            return;
+        }
+        scheduleCommit();
+        if (changeListeners.isEmpty()) {
+            return;
+        }
+        SensorChannel definition = record.getChannel(channel);
+        int kind;
+        switch (definition.getType()) {
+            case SensorChannel.TYPE_FLAG:
+                kind = CHANGE_TOGGLE;
+                break;
+            case SensorChannel.TYPE_TEXT:
+                kind = CHANGE_TEXT;
+                break;
+            default:
+                kind = CHANGE_VALUE;
+                break;
+        }
+        Change change = new Change(kind, channel, definition.getName(), previous, record.getValue(channel), record.getText(channel));
+        for (ChangeListener listener : changeListeners) {
+            listener.onChange(this, change);
+        }
+    }
+    
+    private void scheduleCommit() {
+        if (!commitPending) {
+            commitPending = true;
+            // Runs after the rest of this write's child events
+            handler.post(commit);
+        }
+    }
+    
+    private void commit() {
+        commitPending = false;
+        EnvironmentalData data = EnvironmentalData.fromRecord(record.copy());
+        data.timestamp = System.currentTimeMillis();
+        ingest.accept(data);
+        latest = data;
+        for (ListenerMultiplexer.Subscriber<EnvironmentalData> subscriber : subscribers) {
+            subscriber.onValue(data);
+        }
+    }
+    
+    // Firebase has already removed the failed listener; drop the rest so the next
+    // subscriber re-attaches cleanly. When all of them are cancelled together only the
+    // first one still belongs to the attached set, so subscribers hear about it once.
+    private void fail(Object listener, DatabaseError databaseError) {
+        synchronized (this) {
+            boolean current = false;
+            for (Attached entry : attached) {
+                if (entry.child == listener || entry.value == listener) {
+                    current = true;
+                    break;
+                }
+            }
+            if (!current) {
+                return;
+            }
+            detach();
+        }
+        Exception error = databaseError.toException();
+        for (ListenerMultiplexer.Subscriber<EnvironmentalData> subscriber : subscribers) {
+            subscriber.onError(error);
+        }
+    }
+    
+    private static class Attached {
+        final DatabaseReference ref;
+        final ChildEventListener child;
+        final ValueEventListener value;
+        
+        Attached(DatabaseReference ref, ChildEventListener child, ValueEventListener value) {
+            this.ref = ref;
+            this.child = child;
+            this.value = value;
+        }
+    }
+    
+    private class FieldListener implements ChildEventListener {
+        final String parent;
+        
+        FieldListener(String parent) {
+            this.parent = parent;
+        }
+        
+        @Override
+        public void onChildAdded(DataSnapshot dataSnapshot, String previousChildName) {
+            apply(parent, dataSnapshot, false);
+        }
+        
+        @Override
+        public void onChildChanged(DataSnapshot dataSnapshot, String previousChildName) {
+            apply(parent, dataSnapshot, false);
+        }
+        
+        @Override
+        public void onChildRemoved(DataSnapshot dataSnapshot) {
+            apply(parent, dataSnapshot, true);
+        }
+        
+        @Override
+        public void onChildMoved(DataSnapshot dataSnapshot, String previousChildName) {
+        }
+        
+        @Override
+        public void onCancelled(DatabaseError databaseError) {
+            fail(this, databaseError);
+        }
+    }
+} 
\ No newline at end of file
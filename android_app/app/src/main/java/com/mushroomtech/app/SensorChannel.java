@@ -0,0 +1,74 @@
+package com.mushroomtech.app;
+
+// One entry of the ChannelRegistry: what a value is called, its unit and plausible range, and
+// where it lives in a device_status snapshot. Later paths are fallbacks for older field names
+// and are only used when the earlier ones are missing.
+public class SensorChannel {
+    
+    public static final int TYPE_NUMBER = 0;
+    public static final int TYPE_FLAG = 1;
+    public static final int TYPE_TEXT = 2;
+    
+    private final String name;
+    private final String unit;
+    private final int type;
+    private final double min;
+    private final double max;
+    private final String[] paths;
+    
+    public SensorChannel(String name, String unit, int type, double min, double max, String... paths) {
+        if (paths.length == 0) {
+            throw new IllegalArgumentException("Channel " + name + " has no path");
+        }
+        this.name = name;
+        this.unit = unit;
+        this.type = type;
+        this.min = min;
+        this.max = max;
+        this.paths = paths.clone();
+    }
+    
+    public static SensorChannel number(String name, String unit, double min, double max, String... paths) {
+        return new SensorChannel(name, unit, TYPE_NUMBER, min, max, paths);
+    }
+    
+    public static SensorChannel flag(String name, String... paths) {
+        return new SensorChannel(name, "", TYPE_FLAG, 0, 1, paths);
+    }
+    
+    public static SensorChannel text(String name, String... paths) {
+        return new SensorChannel(name, "", TYPE_TEXT, Double.NaN, Double.NaN, paths);
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public String getUnit() {
+        return unit;
+    }
+    
+    public int getType() {
+        return type;
+    }
+    
+    public double getMin() {
+        return min;
+    }
+    
+    public double getMax() {
+        return max;
+    }
+    
+    public String[] getPaths() {
+        return paths.clone();
+    }
+    
+    String pathAt(int index) {
+        return paths[index];
+    }
+    
+    int pathCount() {
+        return paths.length;
+    }
+} 
\ No newline at end of file
@@ -0,0 +1,558 @@
+package com.mushroomtech.app;
+
+import android.util.Log;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Append-only on-device log of readings, split into segment files. Only the newest segment
+// is written; it is memory-mapped at full size. Once the log rolls over to a new segment the
+// previous one is sealed: rewritten Gorilla-compressed and its mapping dropped. A day of
+// 5-second readings packs into a small fraction of the ~1 MB mapping, and a day of the Pi's
+// 10-minute history into a couple of KB.
+//
+// Active segment layout, <start>.seg (little endian):
+//   header   16 bytes   magic, version, record count, reserved
+//   index    INDEX_ENTRIES longs, timestamp of every INDEX_STRIDE-th record
+//   records  SEGMENT_RECORDS fixed-width records (timestamp, temperature, humidity, relay mask)
+//
+// Sealed segment layout, <start>.gor (little endian):
+//   header   32 bytes   magic, version, record count, block count, first and last timestamp
+//   index    16 bytes per block: first timestamp, byte offset, byte length, reserved
+//   blocks   GorillaCodec streams of up to SEALED_BLOCK_RECORDS records each
+//
+// Active records are read straight out of the mapping. Sealed segments are mapped read-only
+// too; a scan binary-searches the block index and decodes from the block holding `from`,
+// so a range read costs at most one block of records it did not ask for.
+public class SensorLog {
+    
+    private static final String TAG = "SensorLog";
+    private static final String SUFFIX = ".seg";
+    private static final String SEALED_SUFFIX = ".gor";
+    private static final String TEMP_SUFFIX = ".tmp";
+    
+    private static final int MAGIC = 0x4D534C47; // "MSLG"
+    private static final int SEALED_MAGIC = 0x4D534C5A; // "MSLZ"
+    private static final int VERSION = 1;
+    private static final int SEALED_HEADER_SIZE = 32;
+    private static final int SEALED_INDEX_ENTRY_SIZE = 16;
+    static final int SEALED_BLOCK_RECORDS = 1024;   // ~85 min of 5-second samples
+    
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 32;
+    static final int SEGMENT_RECORDS = 32 * 1024;   // ~45 h of 5-second samples, ~1 MB
+    static final int INDEX_STRIDE = 128;
+    static final int INDEX_ENTRIES = SEGMENT_RECORDS / INDEX_STRIDE;
+    static final int RECORDS_OFFSET = HEADER_SIZE + INDEX_ENTRIES * 8;
+    static final int SEGMENT_SIZE = RECORDS_OFFSET + SEGMENT_RECORDS * RECORD_SIZE;
+    
+    private static final int COUNT_OFFSET = 8;
+    
+    public static final long DEFAULT_SEGMENT_DURATION = SensorRollups.DAY;
+    public static final long DEFAULT_RETENTION = 30 * SensorRollups.DAY;
+    
+    private final File directory;
+    private final long segmentDuration;
+    private final long retention;
+    private final List<Segment> segments = new ArrayList<>();
+    
+    public interface RecordVisitor {
+        void visit(long timestamp, double temperature, double humidity, int relayMask);
+    }
+    
+    public SensorLog(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_DURATION, DEFAULT_RETENTION);
+    }
+    
+    public SensorLog(File directory, long segmentDuration, long retention) throws IOException {
+        this.directory = directory;
+        this.segmentDuration = segmentDuration;
+        this.retention = retention;
+        
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create log directory " + directory);
+        }
+        
+        File[] files = directory.listFiles();
+        if (files != null) {
+            Arrays.sort(files, (a, b) -> Long.compare(startTimeOf(a), startTimeOf(b)));
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    // A seal that did not finish; the .seg it came from is still there
+                    deleteFile(file);
+                    continue;
+                }
+                try {
+                    if (name.endsWith(SEALED_SUFFIX)) {
+                        segments.add(SealedSegment.open(file));
+                    } else if (name.endsWith(SUFFIX)) {
+                        if (new File(directory, startTimeOf(file) + SEALED_SUFFIX).exists()) {
+                            // Sealed, but the process died before the original was deleted
+                            deleteFile(file);
+                            continue;
+                        }
+                        segments.add(MappedSegment.open(file));
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Skipping unreadable segment " + name, e);
+                }
+            }
+        }
+        // Logs written before segments were sealed, or a crash right after a rollover
+        for (int s = segments.size() - 2; s >= 0; s--) {
+            seal(s);
+        }
+    }
+    
+    public void append(EnvironmentalData data) throws IOException {
+        append(data.timestamp, data.temperature, data.humidity, data.getRelayMask());
+    }
+    
+    public synchronized void append(long timestamp, double temperature, double humidity, int relayMask)
+            throws IOException {
+        Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (last != null && last.count > 0 && timestamp < last.lastTimestamp()) {
+            return; // Append-only: ignore readings older than the newest record
+        }
+        MappedSegment active = last instanceof MappedSegment ? (MappedSegment) last : null;
+        if (active == null || active.isFull() || timestamp - active.startTime >= segmentDuration) {
+            if (active != null) {
+                seal(segments.size() - 1);
+            }
+            active = MappedSegment.create(new File(directory, timestamp + SUFFIX), timestamp);
+            segments.add(active);
+            applyRetention(timestamp);
+        }
+        active.append(timestamp, temperature, humidity, relayMask);
+    }
+    
+    // Visits every record with from <= timestamp < to in time order
+    public synchronized int scan(long from, long to, RecordVisitor visitor) {
+        int visited = 0;
+        for (int s = firstSegmentFor(from); s < segments.size(); s++) {
+            Segment segment = segments.get(s);
+            if (segment.startTime >= to) {
+                break;
+            }
+            if (segment.count > 0 && segment.lastTimestamp() >= from) {
+                visited += segment.scan(from, to, visitor);
+            }
+        }
+        return visited;
+    }
+    
+    public HistoricalData read(long from, long to) {
+        HistoricalData historicalData = new HistoricalData();
+        scan(from, to, historicalData::add);
+        historicalData.success = true;
+        historicalData.finish();
+        return historicalData;
+    }
+    
+    public synchronized long getFirstTimestamp() {
+        for (Segment segment : segments) {
+            if (segment.count > 0) {
+                return segment.firstTimestamp();
+            }
+        }
+        return -1;
+    }
+    
+    public synchronized long getLastTimestamp() {
+        for (int s = segments.size() - 1; s >= 0; s--) {
+            Segment segment = segments.get(s);
+            if (segment.count > 0) {
+                return segment.lastTimestamp();
+            }
+        }
+        return -1;
+    }
+    
+    public synchronized void flush() {
+        Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (last instanceof MappedSegment) {
+            ((MappedSegment) last).force();
+        }
+    }
+    
+    public synchronized void close() {
+        flush();
+        segments.clear();
+    }
+    
+    // Drops whole segments whose newest record is older than the retention window
+    private void applyRetention(long now) {
+        long cutoff = now - retention;
+        while (segments.size() > 1) {
+            Segment oldest = segments.get(0);
+            if (oldest.count > 0 && oldest.lastTimestamp() >= cutoff) {
+                break;
+            }
+            segments.remove(0);
+            deleteFile(oldest.file);
+        }
+    }
+    
+    // Replaces a mapped segment with its compressed copy. The copy is written under a
+    // temporary name and renamed into place before the original is deleted, so a crash
+    // leaves one complete version or the other. On failure the segment stays mapped.
+    private void seal(int index) {
+        if (!(segments.get(index) instanceof MappedSegment)) {
+            return;
+        }
+        MappedSegment segment = (MappedSegment) segments.get(index);
+        if (segment.count == 0) {
+            segments.remove(index);
+            deleteFile(segment.file);
+            return;
+        }
+        
+        int blockCount = (segment.count + SEALED_BLOCK_RECORDS - 1) / SEALED_BLOCK_RECORDS;
+        byte[][] blocks = new byte[blockCount][];
+        for (int b = 0; b < blockCount; b++) {
+            GorillaCodec.Encoder encoder = new GorillaCodec.Encoder();
+            int first = b * SEALED_BLOCK_RECORDS;
+            int last = Math.min(segment.count, first + SEALED_BLOCK_RECORDS) - 1;
+            // Bounds by index rather than time so equal timestamps cannot straddle a block
+            segment.scanIndices(first, last, encoder::add);
+            blocks[b] = encoder.toByteArray();
+        }
+        
+        int headerSize = SEALED_HEADER_SIZE + blockCount * SEALED_INDEX_ENTRY_SIZE;
+        ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(SEALED_MAGIC).putInt(VERSION).putInt(segment.count).putInt(blockCount)
+                .putLong(segment.firstTimestamp()).putLong(segment.lastTimestamp());
+        int offset = headerSize;
+        for (int b = 0; b < blockCount; b++) {
+            header.putLong(segment.timestampAt(b * SEALED_BLOCK_RECORDS))
+                    .putInt(offset).putInt(blocks[b].length);
+            offset += blocks[b].length;
+        }
+        
+        File sealed = new File(directory, segment.startTime + SEALED_SUFFIX);
+        File temp = new File(directory, sealed.getName() + TEMP_SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(header.array());
+            for (byte[] block : blocks) {
+                out.write(block);
+            }
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to seal segment " + segment.file.getName(), e);
+            deleteFile(temp);
+            segment.force();
+            return;
+        }
+        if (!temp.renameTo(sealed)) {
+            Log.e(TAG, "Failed to rename sealed segment " + temp.getName());
+            deleteFile(temp);
+            segment.force();
+            return;
+        }
+        try {
+            segments.set(index, SealedSegment.open(sealed));
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to map sealed segment " + sealed.getName(), e);
+            deleteFile(sealed);
+            segment.force();
+            return;
+        }
+        deleteFile(segment.file);
+    }
+    
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Failed to delete " + file.getName());
+        }
+    }
+    
+    // Last segment starting at or before the given time
+    private int firstSegmentFor(long timestamp) {
+        int low = 0;
+        int high = segments.size() - 1;
+        int result = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (segments.get(mid).startTime <= timestamp) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+    
+    private static long startTimeOf(File file) {
+        String name = file.getName();
+        int dot = name.indexOf('.');
+        try {
+            return Long.parseLong(dot < 0 ? name : name.substring(0, dot));
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+    
+    private abstract static class Segment {
+        final File file;
+        final long startTime;
+        int count;
+        
+        Segment(File file, long startTime, int count) {
+            this.file = file;
+            this.startTime = startTime;
+            this.count = count;
+        }
+        
+        abstract long firstTimestamp();
+        
+        abstract long lastTimestamp();
+        
+        // Visits records with from <= timestamp < to in time order; returns how many
+        abstract int scan(long from, long to, RecordVisitor visitor);
+    }
+    
+    private static class SealedSegment extends Segment {
+        final MappedByteBuffer buffer;
+        final int blockCount;
+        final long first;
+        final long last;
+        
+        private SealedSegment(File file, MappedByteBuffer buffer, int count, int blockCount, long first, long last) {
+            super(file, startTimeOf(file), count);
+            this.buffer = buffer;
+            this.blockCount = blockCount;
+            this.first = first;
+            this.last = last;
+        }
+        
+        // Maps the file and checks the header; blocks are not touched until scanned
+        static SealedSegment open(File file) throws IOException {
+            long length = file.length();
+            if (length < SEALED_HEADER_SIZE || length > Integer.MAX_VALUE) {
+                throw new IOException("Unexpected segment size " + length);
+            }
+            MappedByteBuffer buffer;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                 FileChannel channel = raf.getChannel()) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+            }
+            if (buffer.getInt(0) != SEALED_MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Bad segment header");
+            }
+            int count = buffer.getInt(8);
+            int blockCount = buffer.getInt(12);
+            if (count < 0 || blockCount < 0
+                    || SEALED_HEADER_SIZE + (long) blockCount * SEALED_INDEX_ENTRY_SIZE > length) {
+                throw new IOException("Truncated segment " + file.getName());
+            }
+            if (blockCount > 0) {
+                int lastEntry = indexEntry(blockCount - 1);
+                if ((long) buffer.getInt(lastEntry + 8) + buffer.getInt(lastEntry + 12) > length) {
+                    throw new IOException("Truncated segment " + file.getName());
+                }
+            }
+            return new SealedSegment(file, buffer, count, blockCount, buffer.getLong(16), buffer.getLong(24));
+        }
+        
+        private static int indexEntry(int block) {
+            return SEALED_HEADER_SIZE + block * SEALED_INDEX_ENTRY_SIZE;
+        }
+        
+        long blockStart(int block) {
+            return buffer.getLong(indexEntry(block));
+        }
+        
+        @Override
+        long firstTimestamp() {
+            return first;
+        }
+        
+        @Override
+        long lastTimestamp() {
+            return last;
+        }
+        
+        @Override
+        int scan(long from, long to, RecordVisitor visitor) {
+            int visited = 0;
+            for (int b = firstBlockFor(from); b < blockCount; b++) {
+                if (blockStart(b) >= to) {
+                    break;
+                }
+                GorillaCodec.Decoder decoder = new GorillaCodec.Decoder(buffer, buffer.getInt(indexEntry(b) + 8));
+                while (decoder.next()) {
+                    long timestamp = decoder.timestamp();
+                    if (timestamp < from) {
+                        continue;
+                    }
+                    if (timestamp >= to) {
+                        return visited;
+                    }
+                    visitor.visit(timestamp, decoder.temperature(), decoder.humidity(), decoder.relayMask());
+                    visited++;
+                }
+            }
+            return visited;
+        }
+        
+        // Last block starting before from, since it may still hold records >= from
+        private int firstBlockFor(long from) {
+            int low = 0;
+            int high = blockCount;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (blockStart(mid) < from) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return Math.max(0, low - 1);
+        }
+    }
+    
+    private static class MappedSegment extends Segment {
+        final MappedByteBuffer buffer;
+        
+        private MappedSegment(File file, long startTime, MappedByteBuffer buffer, int count) {
+            super(file, startTime, count);
+            this.buffer = buffer;
+        }
+        
+        static MappedSegment create(File file, long startTime) throws IOException {
+            MappedByteBuffer buffer = map(file);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(COUNT_OFFSET, 0);
+            return new MappedSegment(file, startTime, buffer, 0);
+        }
+        
+        static MappedSegment open(File file) throws IOException {
+            if (file.length() != SEGMENT_SIZE) {
+                throw new IOException("Unexpected segment size " + file.length());
+            }
+            MappedByteBuffer buffer = map(file);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Bad segment header");
+            }
+            int count = Math.min(Math.max(buffer.getInt(COUNT_OFFSET), 0), SEGMENT_RECORDS);
+            return new MappedSegment(file, startTimeOf(file), buffer, count);
+        }
+        
+        private static MappedByteBuffer map(File file) throws IOException {
+            // The mapping stays valid after the channel is closed
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                 FileChannel channel = raf.getChannel()) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                return buffer;
+            }
+        }
+        
+        boolean isFull() {
+            return count >= SEGMENT_RECORDS;
+        }
+        
+        void append(long timestamp, double temperature, double humidity, int relayMask) {
+            int position = RECORDS_OFFSET + count * RECORD_SIZE;
+            buffer.putLong(position, timestamp);
+            buffer.putDouble(position + 8, temperature);
+            buffer.putDouble(position + 16, humidity);
+            buffer.putInt(position + 24, relayMask);
+            if (count % INDEX_STRIDE == 0) {
+                buffer.putLong(HEADER_SIZE + (count / INDEX_STRIDE) * 8, timestamp);
+            }
+            count++;
+            // Publish the record only after it is fully written
+            buffer.putInt(COUNT_OFFSET, count);
+        }
+        
+        long timestampAt(int index) {
+            return buffer.getLong(RECORDS_OFFSET + index * RECORD_SIZE);
+        }
+        
+        // Visits records first..last inclusive, by position
+        void scanIndices(int first, int last, RecordVisitor visitor) {
+            for (int i = first; i <= last; i++) {
+                int position = RECORDS_OFFSET + i * RECORD_SIZE;
+                visitor.visit(buffer.getLong(position),
+                        buffer.getDouble(position + 8),
+                        buffer.getDouble(position + 16),
+                        buffer.getInt(position + 24));
+            }
+        }
+        
+        @Override
+        long firstTimestamp() {
+            return timestampAt(0);
+        }
+        
+        @Override
+        long lastTimestamp() {
+            return timestampAt(count - 1);
+        }
+        
+        @Override
+        int scan(long from, long to, RecordVisitor visitor) {
+            int visited = 0;
+            for (int i = lowerBound(from); i < count; i++) {
+                long timestamp = timestampAt(i);
+                if (timestamp >= to) {
+                    break;
+                }
+                int position = RECORDS_OFFSET + i * RECORD_SIZE;
+                visitor.visit(timestamp,
+                        buffer.getDouble(position + 8),
+                        buffer.getDouble(position + 16),
+                        buffer.getInt(position + 24));
+                visited++;
+            }
+            return visited;
+        }
+        
+        // First record index with a timestamp >= the given time: binary search over the
+        // sparse index to find the block, then within the block
+        int lowerBound(long timestamp) {
+            int blocks = (count + INDEX_STRIDE - 1) / INDEX_STRIDE;
+            int low = 0;
+            int high = blocks;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (buffer.getLong(HEADER_SIZE + mid * 8) < timestamp) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            int blockStart = Math.max(0, (low - 1) * INDEX_STRIDE);
+            int blockEnd = Math.min(count, low * INDEX_STRIDE);
+            
+            low = blockStart;
+            high = blockEnd;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (timestampAt(mid) < timestamp) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+        
+        void force() {
+            buffer.force();
+        }
+    }
+} 
\ No newline at end of file
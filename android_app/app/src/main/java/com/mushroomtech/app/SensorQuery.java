@@ -0,0 +1,667 @@
+package com.mushroomtech.app;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Small query language over columnar sensor history:
+//
+//   <agg>(<field>) [by minute|hour|day] [where <predicate> [and <predicate>]...]
+//                  [between <time> and <time> | last <duration>]
+//
+//   avg(humidity) by hour where heater=on between 2024-05-01 and 2024-05-31
+//   duration() where heater=on and temperature<25 last 7d
+//
+// Relay predicates compile to an on-mask and an off-mask tested against the relay bitset;
+// numeric predicates compile to parallel primitive arrays. An Execution is a record visitor:
+// each row is tested as it is visited and folded straight into its group, so a query runs
+// over SensorLog.scan callbacks without copying the range out or creating objects per row.
+public class SensorQuery {
+    
+    public static final int AGG_COUNT = 0;
+    public static final int AGG_AVG = 1;
+    public static final int AGG_MIN = 2;
+    public static final int AGG_MAX = 3;
+    public static final int AGG_SUM = 4;
+    // Time the where clause held, in milliseconds
+    public static final int AGG_DURATION = 5;
+    
+    private static final int FIELD_NONE = -1;
+    private static final int FIELD_TEMPERATURE = 0;
+    private static final int FIELD_HUMIDITY = 1;
+    
+    private static final int OP_LT = 0;
+    private static final int OP_LE = 1;
+    private static final int OP_GT = 2;
+    private static final int OP_GE = 3;
+    private static final int OP_EQ = 4;
+    private static final int OP_NE = 5;
+    
+    // A row's duration is not credited across gaps longer than the source's max sample gap:
+    // a few missed 5-second readings in the on-device log, one missed row in the Pi's
+    // 10-minute history. Anything longer is the app or the Pi being offline.
+    public static final long LIVE_SAMPLE_GAP = 30 * 1000L;
+    public static final long HISTORY_SAMPLE_GAP = 15 * SensorRollups.MINUTE;
+    private static final int MAX_GROUPS = 100000;
+    
+    private static final Pattern TOKEN = Pattern.compile(
+            "\\s*(\\d{4}-\\d{2}-\\d{2}(?:[ t]\\d{2}:\\d{2}(?::\\d{2})?)?"  // date or date-time
+            + "|\\d+[mhdw](?![a-z0-9])"                                  // duration
+            + "|-?\\d+(?:\\.\\d+)?"                                       // number
+            + "|[a-z_]+|<=|>=|!=|[()<>=])");
+    
+    private final int aggregate;
+    private final int field;
+    private final long bucketMillis;
+    private final int relayOnMask;
+    private final int relayOffMask;
+    private final int[] predicateFields;
+    private final int[] predicateOps;
+    private final double[] predicateValues;
+    private final long from;
+    private final long to;
+    private final TimeZone zone = TimeZone.getDefault();
+    
+    private SensorQuery(Parser parser) {
+        this.aggregate = parser.aggregate;
+        this.field = parser.field;
+        this.bucketMillis = parser.bucketMillis;
+        this.relayOnMask = parser.relayOnMask;
+        this.relayOffMask = parser.relayOffMask;
+        this.predicateFields = toIntArray(parser.predicateFields);
+        this.predicateOps = toIntArray(parser.predicateOps);
+        this.predicateValues = new double[parser.predicateValues.size()];
+        for (int i = 0; i < predicateValues.length; i++) {
+            predicateValues[i] = parser.predicateValues.get(i);
+        }
+        this.from = parser.from;
+        this.to = parser.to;
+    }
+    
+    public static SensorQuery parse(String text) {
+        return parse(text, System.currentTimeMillis());
+    }
+    
+    // 'now' anchors "last <duration>" ranges; throws IllegalArgumentException on bad syntax
+    public static SensorQuery parse(String text, long now) {
+        Parser parser = new Parser(tokenize(text.toLowerCase(Locale.US)), now);
+        parser.parseQuery();
+        return new SensorQuery(parser);
+    }
+    
+    public boolean hasRange() {
+        return from != Long.MIN_VALUE || to != Long.MAX_VALUE;
+    }
+    
+    public long getFrom() {
+        return from;
+    }
+    
+    public long getTo() {
+        return to;
+    }
+    
+    public int getAggregate() {
+        return aggregate;
+    }
+    
+    // Rows must be fed in time order, from one or more sources
+    public Execution newExecution() {
+        return new Execution();
+    }
+    
+    public Result execute(HistoricalData data, long maxSampleGap) {
+        Execution execution = newExecution();
+        SensorLog.RecordVisitor visitor = execution.visitor(maxSampleGap);
+        long[] timestamps = data.getTimestamps();
+        int size = data.getDataPointCount();
+        for (int i = lowerBound(timestamps, size, from); i < size && timestamps[i] < to; i++) {
+            visitor.visit(timestamps[i], data.getTemperatures()[i], data.getHumidities()[i], data.getRelayMasks()[i]);
+        }
+        return execution.finish();
+    }
+    
+    // NaN fails every comparison
+    private boolean matches(double temperature, double humidity, int relayMask) {
+        if ((relayMask & relayOnMask) != relayOnMask || (relayMask & relayOffMask) != 0) {
+            return false;
+        }
+        for (int p = 0; p < predicateOps.length; p++) {
+            double x = predicateFields[p] == FIELD_TEMPERATURE ? temperature : humidity;
+            double value = predicateValues[p];
+            boolean pass;
+            switch (predicateOps[p]) {
+                case OP_LT:
+                    pass = x < value;
+                    break;
+                case OP_LE:
+                    pass = x <= value;
+                    break;
+                case OP_GT:
+                    pass = x > value;
+                    break;
+                case OP_GE:
+                    pass = x >= value;
+                    break;
+                case OP_EQ:
+                    pass = x == value;
+                    break;
+                default:
+                    pass = x < value || x > value;
+                    break;
+            }
+            if (!pass) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // Running aggregates for one run of the query. Groups are wall-clock buckets, numbered so
+    // a 23 or 25 hour DST day is still one group, and only those with rows are kept.
+    public class Execution {
+        private long[] groupIds = new long[16];
+        private long[] counts = new long[16];
+        private double[] sums = new double[16];
+        private double[] mins = new double[16];
+        private double[] maxs = new double[16];
+        private int groupCount;
+        
+        // Last matching row, waiting for the next row to credit its duration
+        private int pendingGroup = -1;
+        private long pendingTimestamp;
+        private long pendingGap;
+        
+        private Execution() {
+        }
+        
+        // Visitor for one source; maxSampleGap bounds the duration credited after its rows
+        public SensorLog.RecordVisitor visitor(long maxSampleGap) {
+            return (timestamp, temperature, humidity, relayMask) ->
+                    visit(timestamp, temperature, humidity, relayMask, maxSampleGap);
+        }
+        
+        private void visit(long timestamp, double temperature, double humidity, int relayMask, long maxSampleGap) {
+            if (timestamp < from || timestamp >= to) {
+                return;
+            }
+            if (pendingGroup >= 0) {
+                // Credit the interval up to this reading, if it is not a gap
+                long interval = timestamp - pendingTimestamp;
+                if (interval <= pendingGap) {
+                    sums[pendingGroup] += interval;
+                }
+                pendingGroup = -1;
+            }
+            if (!matches(temperature, humidity, relayMask)) {
+                return;
+            }
+            
+            int group = groupFor(bucketMillis > 0 ? SensorRollups.localBucket(timestamp, bucketMillis, zone) : 0);
+            if (aggregate == AGG_DURATION) {
+                counts[group]++;
+                pendingGroup = group;
+                pendingTimestamp = timestamp;
+                pendingGap = maxSampleGap;
+                return;
+            }
+            if (field == FIELD_NONE) {
+                counts[group]++;
+                return;
+            }
+            double value = field == FIELD_TEMPERATURE ? temperature : humidity;
+            if (value != value) {
+                return; // Dropout
+            }
+            if (counts[group] == 0) {
+                mins[group] = value;
+                maxs[group] = value;
+            } else {
+                mins[group] = Math.min(mins[group], value);
+                maxs[group] = Math.max(maxs[group], value);
+            }
+            counts[group]++;
+            sums[group] += value;
+        }
+        
+        // Rows arrive in time order, so the group is nearly always the last one or a new one
+        private int groupFor(long id) {
+            if (groupCount > 0 && groupIds[groupCount - 1] == id) {
+                return groupCount - 1;
+            }
+            int index = groupCount;
+            if (groupCount > 0 && groupIds[groupCount - 1] > id) {
+                index = Arrays.binarySearch(groupIds, 0, groupCount, id);
+                if (index >= 0) {
+                    return index;
+                }
+                index = -index - 1;
+            }
+            if (groupCount == MAX_GROUPS) {
+                throw new IllegalArgumentException("Too many groups, use a coarser 'by'");
+            }
+            if (groupCount == groupIds.length) {
+                int capacity = groupCount * 2;
+                groupIds = Arrays.copyOf(groupIds, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+                sums = Arrays.copyOf(sums, capacity);
+                mins = Arrays.copyOf(mins, capacity);
+                maxs = Arrays.copyOf(maxs, capacity);
+            }
+            int moved = groupCount - index;
+            System.arraycopy(groupIds, index, groupIds, index + 1, moved);
+            System.arraycopy(counts, index, counts, index + 1, moved);
+            System.arraycopy(sums, index, sums, index + 1, moved);
+            System.arraycopy(mins, index, mins, index + 1, moved);
+            System.arraycopy(maxs, index, maxs, index + 1, moved);
+            groupIds[index] = id;
+            counts[index] = 0;
+            sums[index] = 0;
+            groupCount++;
+            if (pendingGroup >= index) {
+                pendingGroup++;
+            }
+            return index;
+        }
+        
+        public Result finish() {
+            if (bucketMillis == 0 && groupCount == 0) {
+                groupFor(0); // An ungrouped query always has one result
+            }
+            Result result = new Result(aggregate, bucketMillis, groupCount);
+            for (int group = 0; group < groupCount; group++) {
+                long count = counts[group];
+                if (count == 0 && bucketMillis > 0) {
+                    continue; // Every row in it was a dropout
+                }
+                double value;
+                switch (aggregate) {
+                    case AGG_COUNT:
+                        value = count;
+                        break;
+                    case AGG_AVG:
+                        value = count > 0 ? sums[group] / count : Double.NaN;
+                        break;
+                    case AGG_MIN:
+                        value = count > 0 ? mins[group] : Double.NaN;
+                        break;
+                    case AGG_MAX:
+                        value = count > 0 ? maxs[group] : Double.NaN;
+                        break;
+                    default:
+                        value = sums[group];
+                        break;
+                }
+                long groupStart = bucketMillis > 0
+                        ? SensorRollups.localBucketStart(groupIds[group], bucketMillis, zone) : 0;
+                result.add(groupStart, value, count);
+            }
+            return result;
+        }
+    }
+    
+    // First index in [0, size) whose timestamp is >= the given time
+    private static int lowerBound(long[] timestamps, int size, long timestamp) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    private static int[] toIntArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+    
+    private static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        Matcher matcher = TOKEN.matcher(text);
+        int position = 0;
+        while (position < text.length()) {
+            if (!matcher.find(position) || matcher.start() != position) {
+                if (text.substring(position).trim().isEmpty()) {
+                    break;
+                }
+                throw new IllegalArgumentException("Unexpected input at '" + text.substring(position).trim() + "'");
+            }
+            tokens.add(matcher.group(1));
+            position = matcher.end();
+        }
+        return tokens;
+    }
+    
+    public static class Result {
+        private final int aggregate;
+        private final long bucketMillis;
+        private final long[] groupStarts;
+        private final double[] values;
+        private final long[] counts;
+        private int size;
+        
+        Result(int aggregate, long bucketMillis, int capacity) {
+            this.aggregate = aggregate;
+            this.bucketMillis = bucketMillis;
+            this.groupStarts = new long[capacity];
+            this.values = new double[capacity];
+            this.counts = new long[capacity];
+        }
+        
+        void add(long groupStart, double value, long count) {
+            groupStarts[size] = groupStart;
+            values[size] = value;
+            counts[size] = count;
+            size++;
+        }
+        
+        public int size() {
+            return size;
+        }
+        
+        // Only meaningful for grouped queries
+        public long getGroupStart(int index) {
+            return groupStarts[index];
+        }
+        
+        public double getValue(int index) {
+            return values[index];
+        }
+        
+        // Rows that matched the where clause in this group
+        public long getCount(int index) {
+            return counts[index];
+        }
+        
+        public String format() {
+            StringBuilder text = new StringBuilder();
+            SimpleDateFormat dateFormat = new SimpleDateFormat(
+                    bucketMillis >= SensorRollups.DAY ? "yyyy-MM-dd" : "yyyy-MM-dd HH:mm", Locale.getDefault());
+            for (int i = 0; i < size; i++) {
+                if (bucketMillis > 0) {
+                    text.append(dateFormat.format(new Date(groupStarts[i]))).append("  ");
+                }
+                text.append(formatValue(values[i])).append('\n');
+            }
+            if (size == 0) {
+                text.append("No matching readings\n");
+            }
+            return text.toString();
+        }
+        
+        private String formatValue(double value) {
+            if (aggregate == AGG_DURATION) {
+                long minutes = (long) value / SensorRollups.MINUTE;
+                return String.format(Locale.US, "%dh %02dm", minutes / 60, minutes % 60);
+            } else if (aggregate == AGG_COUNT) {
+                return String.valueOf((long) value);
+            } else if (Double.isNaN(value)) {
+                return "--";
+            }
+            return String.format(Locale.US, "%.2f", value);
+        }
+    }
+    
+    private static class Parser {
+        private final List<String> tokens;
+        private final long now;
+        private final Calendar calendar = Calendar.getInstance();
+        private int position;
+        
+        int aggregate;
+        int field = FIELD_NONE;
+        long bucketMillis;
+        int relayOnMask;
+        int relayOffMask;
+        final List<Integer> predicateFields = new ArrayList<>();
+        final List<Integer> predicateOps = new ArrayList<>();
+        final List<Double> predicateValues = new ArrayList<>();
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        
+        Parser(List<String> tokens, long now) {
+            this.tokens = tokens;
+            this.now = now;
+        }
+        
+        void parseQuery() {
+            aggregate = parseAggregate(next());
+            expect("(");
+            if (!peek(")")) {
+                field = parseField(next());
+                if (field == FIELD_NONE) {
+                    throw new IllegalArgumentException("Unknown field '" + tokens.get(position - 1) + "'");
+                }
+            }
+            expect(")");
+            if (field == FIELD_NONE && aggregate != AGG_COUNT && aggregate != AGG_DURATION) {
+                throw new IllegalArgumentException("This aggregate needs temperature or humidity");
+            }
+            
+            while (position < tokens.size()) {
+                String keyword = next();
+                switch (keyword) {
+                    case "by":
+                        bucketMillis = parseUnit(next());
+                        break;
+                    case "where":
+                        parsePredicate();
+                        while (peek("and")) {
+                            position++;
+                            parsePredicate();
+                        }
+                        break;
+                    case "between":
+                        from = parseTime(next());
+                        expect("and");
+                        String end = next();
+                        to = parseTime(end);
+                        if (isDate(end)) {
+                            // "between 2024-05-01 and 2024-05-31" includes all of May 31st
+                            calendar.setTimeInMillis(to);
+                            calendar.add(Calendar.DAY_OF_MONTH, 1);
+                            to = calendar.getTimeInMillis();
+                        }
+                        break;
+                    case "last":
+                        from = now - parseDuration(next());
+                        to = now;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unexpected '" + keyword + "'");
+                }
+            }
+        }
+        
+        private void parsePredicate() {
+            String name = next();
+            String op = next();
+            String value = next();
+            int relay = HistoricalData.relayForKey(name);
+            if (relay != 0) {
+                boolean on = parseSwitch(value);
+                if (op.equals("!=")) {
+                    on = !on;
+                } else if (!op.equals("=")) {
+                    throw new IllegalArgumentException("Relays only support = and !=");
+                }
+                if (on) {
+                    relayOnMask |= relay;
+                } else {
+                    relayOffMask |= relay;
+                }
+                return;
+            }
+            
+            int predicateField = parseField(name);
+            if (predicateField == FIELD_NONE) {
+                throw new IllegalArgumentException("Unknown field '" + name + "'");
+            }
+            predicateFields.add(predicateField);
+            predicateOps.add(parseOperator(op));
+            try {
+                predicateValues.add(Double.parseDouble(value));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Expected a number, got '" + value + "'");
+            }
+        }
+        
+        private long parseTime(String token) {
+            if (token.equals("now")) {
+                return now;
+            }
+            if (token.length() >= 10 && token.charAt(4) == '-') {
+                // Pad to the full "yyyy-MM-dd HH:mm:ss" form the history parser expects
+                String text = isDate(token) ? token + " 00:00:00"
+                        : token.length() == 16 ? token + ":00" : token;
+                long timestamp = HistoricalData.parseTimestamp(text, calendar);
+                if (timestamp >= 0) {
+                    return timestamp;
+                }
+            }
+            try {
+                return HistoricalData.normalizeEpoch(Double.parseDouble(token));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Expected a date, epoch time or 'now', got '" + token + "'");
+            }
+        }
+        
+        private static boolean isDate(String token) {
+            return token.length() == 10 && token.charAt(4) == '-';
+        }
+        
+        private String next() {
+            if (position >= tokens.size()) {
+                throw new IllegalArgumentException("Query ends unexpectedly");
+            }
+            return tokens.get(position++);
+        }
+        
+        private boolean peek(String token) {
+            return position < tokens.size() && tokens.get(position).equals(token);
+        }
+        
+        private void expect(String token) {
+            String actual = next();
+            if (!actual.equals(token)) {
+                throw new IllegalArgumentException("Expected '" + token + "', got '" + actual + "'");
+            }
+        }
+        
+        private static int parseAggregate(String token) {
+            switch (token) {
+                case "count":
+                    return AGG_COUNT;
+                case "avg":
+                case "mean":
+                    return AGG_AVG;
+                case "min":
+                    return AGG_MIN;
+                case "max":
+                    return AGG_MAX;
+                case "sum":
+                    return AGG_SUM;
+                case "duration":
+                    return AGG_DURATION;
+                default:
+                    throw new IllegalArgumentException("Unknown aggregate '" + token + "'");
+            }
+        }
+        
+        private static int parseField(String token) {
+            switch (token) {
+                case "temperature":
+                case "temp":
+                    return FIELD_TEMPERATURE;
+                case "humidity":
+                    return FIELD_HUMIDITY;
+                default:
+                    return FIELD_NONE;
+            }
+        }
+        
+        private static long parseUnit(String token) {
+            switch (token) {
+                case "minute":
+                    return SensorRollups.MINUTE;
+                case "hour":
+                    return SensorRollups.HOUR;
+                case "day":
+                    return SensorRollups.DAY;
+                default:
+                    throw new IllegalArgumentException("Group by minute, hour or day, not '" + token + "'");
+            }
+        }
+        
+        private static int parseOperator(String token) {
+            switch (token) {
+                case "<":
+                    return OP_LT;
+                case "<=":
+                    return OP_LE;
+                case ">":
+                    return OP_GT;
+                case ">=":
+                    return OP_GE;
+                case "=":
+                    return OP_EQ;
+                case "!=":
+                    return OP_NE;
+                default:
+                    throw new IllegalArgumentException("Unknown operator '" + token + "'");
+            }
+        }
+        
+        private static boolean parseSwitch(String token) {
+            switch (token) {
+                case "on":
+                case "true":
+                case "1":
+                    return true;
+                case "off":
+                case "false":
+                case "0":
+                    return false;
+                default:
+                    throw new IllegalArgumentException("Expected on or off, got '" + token + "'");
+            }
+        }
+        
+        private static long parseDuration(String token) {
+            char unit = token.charAt(token.length() - 1);
+            long amount;
+            try {
+                amount = Long.parseLong(token.substring(0, token.length() - 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Expected a duration like 12h or 7d, got '" + token + "'");
+            }
+            switch (unit) {
+                case 'm':
+                    return amount * SensorRollups.MINUTE;
+                case 'h':
+                    return amount * SensorRollups.HOUR;
+                case 'd':
+                    return amount * SensorRollups.DAY;
+                case 'w':
+                    return amount * 7 * SensorRollups.DAY;
+                default:
+                    throw new IllegalArgumentException("Expected a duration like 12h or 7d, got '" + token + "'");
+            }
+        }
+    }
+} 
\ No newline at end of file
@@ -0,0 +1,63 @@
+package com.mushroomtech.app;
+
+import java.util.Arrays;
+
+// One decoded snapshot, indexed by ChannelRegistry channel. Numbers and flags are doubles
+// (flags as 0 / 1, NaN when missing or out of range); text channels also keep their string.
+public class SensorRecord {
+    
+    static final byte NOT_SET = Byte.MAX_VALUE;
+    
+    private final SensorChannel[] channels;
+    final double[] values;
+    final String[] texts;
+    // Index of the path each value came from, so a fallback path never overrides the primary
+    final byte[] sources;
+    
+    SensorRecord(SensorChannel[] channels) {
+        this.channels = channels;
+        this.values = new double[channels.length];
+        this.texts = new String[channels.length];
+        this.sources = new byte[channels.length];
+        Arrays.fill(values, Double.NaN);
+        Arrays.fill(sources, NOT_SET);
+    }
+    
+    // Detached copy, for handing out a record that is still being updated
+    public SensorRecord copy() {
+        SensorRecord copy = new SensorRecord(channels);
+        System.arraycopy(values, 0, copy.values, 0, values.length);
+        System.arraycopy(texts, 0, copy.texts, 0, texts.length);
+        System.arraycopy(sources, 0, copy.sources, 0, sources.length);
+        return copy;
+    }
+    
+    public int size() {
+        return values.length;
+    }
+    
+    public SensorChannel getChannel(int channel) {
+        return channels[channel];
+    }
+    
+    public boolean has(int channel) {
+        return !Double.isNaN(values[channel]) || texts[channel] != null;
+    }
+    
+    public double getValue(int channel) {
+        return values[channel];
+    }
+    
+    public double getValue(int channel, double fallback) {
+        double value = values[channel];
+        return Double.isNaN(value) ? fallback : value;
+    }
+    
+    public boolean getFlag(int channel) {
+        return values[channel] == 1;
+    }
+    
+    public String getText(int channel) {
+        return texts[channel];
+    }
+} 
\ No newline at end of file
@@ -0,0 +1,477 @@
+package com.mushroomtech.app;
+
+import java.util.TimeZone;
+
+// Incrementally maintained 1 min / 15 min / 1 h / 1 day aggregates of the reading stream.
+// Every tier is fed directly from raw readings in O(1), so coarse tiers keep covering the
+// range that finer tiers (and the raw ring buffer) have already overwritten. The hourly
+// and daily tiers also keep a quantile sketch per bucket for long-range percentiles.
+public class SensorRollups {
+    
+    public static final long MINUTE = 60 * 1000L;
+    public static final long HOUR = 60 * MINUTE;
+    public static final long DAY = 24 * HOUR;
+    
+    // Relay on-time is not credited across gaps longer than this (e.g. app offline)
+    private static final long MAX_SAMPLE_GAP = 5 * MINUTE;
+    
+    private final Tier[] tiers;
+    // Periods the live stream covered; history rows inside them are already counted
+    private final IntervalIndex live = new IntervalIndex(16);
+    private long lastTimestamp = Long.MIN_VALUE;
+    private int lastRelayMask;
+    
+    public SensorRollups() {
+        TimeZone zone = TimeZone.getDefault();
+        tiers = new Tier[] {
+                new Tier(MINUTE, 2 * 24 * 60, zone),      // 2 days
+                new Tier(15 * MINUTE, 30 * 24 * 4, zone), // 30 days
+                new Tier(HOUR, 120 * 24, zone, true),     // 120 days
+                new Tier(DAY, 5 * 366, zone, true)        // 5 years
+        };
+    }
+    
+    // Wall-clock bucket number of a timestamp, using the offset in force at that instant so
+    // hours and days follow DST
+    static long localBucket(long timestamp, long bucketMillis, TimeZone zone) {
+        return Math.floorDiv(timestamp + zone.getOffset(timestamp), bucketMillis);
+    }
+    
+    // UTC start of a wall-clock bucket; local days are 23 or 25 hours long across DST changes
+    static long localBucketStart(long bucket, long bucketMillis, TimeZone zone) {
+        long local = bucket * bucketMillis;
+        return local - zone.getOffset(local - zone.getOffset(local));
+    }
+    
+    static long localStartOf(long timestamp, long bucketMillis, TimeZone zone) {
+        return localBucketStart(localBucket(timestamp, bucketMillis, zone), bucketMillis, zone);
+    }
+    
+    public void add(EnvironmentalData data) {
+        add(data.timestamp, data.temperature, data.humidity, data.getRelayMask());
+    }
+    
+    public synchronized void add(long timestamp, double temperature, double humidity, int relayMask) {
+        if (timestamp < lastTimestamp) {
+            return;
+        }
+        long gap = lastTimestamp == Long.MIN_VALUE ? 0 : timestamp - lastTimestamp;
+        if (lastTimestamp == Long.MIN_VALUE || gap > MAX_SAMPLE_GAP) {
+            gap = 0;
+            live.close();
+            live.open(timestamp);
+        } else {
+            live.extendTo(timestamp);
+        }
+        for (Tier tier : tiers) {
+            tier.add(timestamp, temperature, humidity, gap, lastRelayMask);
+        }
+        lastTimestamp = timestamp;
+        lastRelayMask = relayMask;
+    }
+    
+    // Compacts synced history into the tiers, in any order and interleaved with the live
+    // stream. Rows inside a period the live stream already covered are skipped so nothing is
+    // counted twice, and rows older than a tier's span only reach the coarser tiers. History
+    // rows credit no relay on-time: the Pi's 10-minute cadence is beyond MAX_SAMPLE_GAP.
+    public synchronized int addAll(HistoricalData history) {
+        long[] timestamps = history.getTimestamps();
+        double[] temperatures = history.getTemperatures();
+        double[] humidities = history.getHumidities();
+        int added = 0;
+        for (int i = 0; i < history.getDataPointCount(); i++) {
+            if (live.contains(timestamps[i])) {
+                continue;
+            }
+            for (Tier tier : tiers) {
+                tier.add(timestamps[i], temperatures[i], humidities[i], 0, 0);
+            }
+            added++;
+        }
+        return added;
+    }
+    
+    public Tier[] getTiers() {
+        return tiers;
+    }
+    
+    // Percentiles over [from, to) come from merging bucket sketches: a few hundred small
+    // sketches for a month or a year instead of every raw sample
+    public QuantileSketch temperatureSketch(long from, long to) {
+        return mergeSketches(from, to, true);
+    }
+    
+    public QuantileSketch humiditySketch(long from, long to) {
+        return mergeSketches(from, to, false);
+    }
+    
+    // Uses the finest sketched tier that reaches back to 'from'; buckets at the edges of the
+    // range are included whole
+    private QuantileSketch mergeSketches(long from, long to, boolean temperature) {
+        Tier selected = null;
+        for (Tier tier : tiers) {
+            if (tier.hasSketches()) {
+                selected = tier;
+                if (tier.covers(from)) {
+                    break;
+                }
+            }
+        }
+        QuantileSketch result = new QuantileSketch();
+        if (selected != null) {
+            selected.mergeSketches(from, to, temperature, result);
+        }
+        return result;
+    }
+    
+    // Finest tier that still covers [from, to) in at most maxRows buckets
+    public Tier selectTier(long from, long to, int maxRows) {
+        for (Tier tier : tiers) {
+            long rows = (to - from) / tier.bucketMillis + 1;
+            if (rows <= maxRows && tier.covers(from)) {
+                return tier;
+            }
+        }
+        return tiers[tiers.length - 1];
+    }
+    
+    // Fixed-size ring of buckets for a single resolution, stored as primitive columns
+    public static class Tier {
+        private final long bucketMillis;
+        private final TimeZone zone;
+        private final int capacity;
+        
+        private final long[] bucketStarts;
+        private final int[] counts;
+        private final int[] temperatureCounts;
+        private final double[] temperatureMins;
+        private final double[] temperatureMaxs;
+        private final double[] temperatureSums;
+        private final double[] temperatureLasts;
+        private final int[] humidityCounts;
+        private final double[] humidityMins;
+        private final double[] humidityMaxs;
+        private final double[] humiditySums;
+        private final double[] humidityLasts;
+        // capacity * RELAY_COUNT entries, relay index = bit position in the relay mask
+        private final long[] relayOnMillis;
+        // Per-bucket sketches, null for tiers without them
+        private final QuantileSketch[] temperatureSketches;
+        private final QuantileSketch[] humiditySketches;
+        
+        private int head;
+        private int size;
+        
+        Tier(long bucketMillis, int capacity, TimeZone zone) {
+            this(bucketMillis, capacity, zone, false);
+        }
+        
+        Tier(long bucketMillis, int capacity, TimeZone zone, boolean sketched) {
+            this.bucketMillis = bucketMillis;
+            this.zone = zone;
+            this.capacity = capacity;
+            this.bucketStarts = new long[capacity];
+            this.counts = new int[capacity];
+            this.temperatureCounts = new int[capacity];
+            this.temperatureMins = new double[capacity];
+            this.temperatureMaxs = new double[capacity];
+            this.temperatureSums = new double[capacity];
+            this.temperatureLasts = new double[capacity];
+            this.humidityCounts = new int[capacity];
+            this.humidityMins = new double[capacity];
+            this.humidityMaxs = new double[capacity];
+            this.humiditySums = new double[capacity];
+            this.humidityLasts = new double[capacity];
+            this.relayOnMillis = new long[capacity * EnvironmentalData.RELAY_COUNT];
+            this.temperatureSketches = sketched ? new QuantileSketch[capacity] : null;
+            this.humiditySketches = sketched ? new QuantileSketch[capacity] : null;
+        }
+        
+        synchronized void add(long timestamp, double temperature, double humidity, long gap, int previousRelayMask) {
+            long bucketStart = bucketStartOf(timestamp);
+            long lastStart = size > 0 ? bucketStarts[physical(size - 1)] : Long.MIN_VALUE;
+            int slot;
+            if (bucketStart == lastStart) {
+                slot = physical(size - 1);
+            } else if (bucketStart > lastStart) {
+                if (size > 0 && gap > 0) {
+                    // Split the part of the gap before this bucket across every bucket it
+                    // crosses, opening the ones no reading landed in
+                    long position = timestamp - gap;
+                    while (position < bucketStart) {
+                        long end = Math.min(nextBucketStart(position), bucketStart);
+                        int crossed = physical(size - 1);
+                        long crossedStart = bucketStartOf(position);
+                        if (crossedStart > bucketStarts[crossed]) {
+                            crossed = openBucket(crossedStart);
+                        }
+                        creditRelays(crossed, previousRelayMask, end - position);
+                        position = end;
+                    }
+                    gap = Math.min(gap, timestamp - bucketStart);
+                }
+                slot = openBucket(bucketStart);
+            } else {
+                slot = bucketFor(bucketStart);
+                if (slot < 0) {
+                    return; // Older than anything this tier keeps
+                }
+            }
+            
+            counts[slot]++;
+            if (!Double.isNaN(temperature)) {
+                if (temperatureCounts[slot] == 0) {
+                    temperatureMins[slot] = temperature;
+                    temperatureMaxs[slot] = temperature;
+                } else {
+                    temperatureMins[slot] = Math.min(temperatureMins[slot], temperature);
+                    temperatureMaxs[slot] = Math.max(temperatureMaxs[slot], temperature);
+                }
+                temperatureCounts[slot]++;
+                temperatureSums[slot] += temperature;
+                temperatureLasts[slot] = temperature;
+                if (temperatureSketches != null) {
+                    temperatureSketches[slot].add(temperature);
+                }
+            }
+            if (!Double.isNaN(humidity)) {
+                if (humidityCounts[slot] == 0) {
+                    humidityMins[slot] = humidity;
+                    humidityMaxs[slot] = humidity;
+                } else {
+                    humidityMins[slot] = Math.min(humidityMins[slot], humidity);
+                    humidityMaxs[slot] = Math.max(humidityMaxs[slot], humidity);
+                }
+                humidityCounts[slot]++;
+                humiditySums[slot] += humidity;
+                humidityLasts[slot] = humidity;
+                if (humiditySketches != null) {
+                    humiditySketches[slot].add(humidity);
+                }
+            }
+            creditRelays(slot, previousRelayMask, gap);
+        }
+        
+        private int openBucket(long bucketStart) {
+            if (temperatureSketches != null && size > 0) {
+                // The previous bucket is complete; compact its sketches
+                temperatureSketches[physical(size - 1)].trim();
+                humiditySketches[physical(size - 1)].trim();
+            }
+            int slot;
+            if (size < capacity) {
+                slot = physical(size);
+                size++;
+            } else {
+                slot = head;
+                head = (head + 1) % capacity;
+            }
+            resetSlot(slot, bucketStart, false);
+            return slot;
+        }
+        
+        // Slot of an existing bucket, or a new one inserted in time order; -1 when the tier
+        // is full and the bucket would be its oldest
+        private int bucketFor(long bucketStart) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (bucketStarts[physical(mid)] < bucketStart) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            if (low < size && bucketStarts[physical(low)] == bucketStart) {
+                return physical(low);
+            }
+            if (size == capacity) {
+                if (low == 0) {
+                    return -1;
+                }
+                // Make room by dropping the oldest bucket
+                head = (head + 1) % capacity;
+                size--;
+                low--;
+            }
+            for (int i = size; i > low; i--) {
+                moveSlot(physical(i - 1), physical(i));
+            }
+            size++;
+            int slot = physical(low);
+            // The slot's sketches are now shared with its neighbour, so it gets new ones
+            resetSlot(slot, bucketStart, true);
+            return slot;
+        }
+        
+        private void moveSlot(int from, int to) {
+            bucketStarts[to] = bucketStarts[from];
+            counts[to] = counts[from];
+            temperatureCounts[to] = temperatureCounts[from];
+            temperatureMins[to] = temperatureMins[from];
+            temperatureMaxs[to] = temperatureMaxs[from];
+            temperatureSums[to] = temperatureSums[from];
+            temperatureLasts[to] = temperatureLasts[from];
+            humidityCounts[to] = humidityCounts[from];
+            humidityMins[to] = humidityMins[from];
+            humidityMaxs[to] = humidityMaxs[from];
+            humiditySums[to] = humiditySums[from];
+            humidityLasts[to] = humidityLasts[from];
+            System.arraycopy(relayOnMillis, from * EnvironmentalData.RELAY_COUNT,
+                    relayOnMillis, to * EnvironmentalData.RELAY_COUNT, EnvironmentalData.RELAY_COUNT);
+            if (temperatureSketches != null) {
+                temperatureSketches[to] = temperatureSketches[from];
+                humiditySketches[to] = humiditySketches[from];
+            }
+        }
+        
+        private void resetSlot(int slot, long bucketStart, boolean newSketches) {
+            bucketStarts[slot] = bucketStart;
+            counts[slot] = 0;
+            temperatureCounts[slot] = 0;
+            temperatureSums[slot] = 0;
+            temperatureLasts[slot] = Double.NaN;
+            humidityCounts[slot] = 0;
+            humiditySums[slot] = 0;
+            humidityLasts[slot] = Double.NaN;
+            for (int relay = 0; relay < EnvironmentalData.RELAY_COUNT; relay++) {
+                relayOnMillis[slot * EnvironmentalData.RELAY_COUNT + relay] = 0;
+            }
+            if (temperatureSketches != null) {
+                if (newSketches || temperatureSketches[slot] == null) {
+                    temperatureSketches[slot] = new QuantileSketch();
+                    humiditySketches[slot] = new QuantileSketch();
+                } else {
+                    temperatureSketches[slot].clear();
+                    humiditySketches[slot].clear();
+                }
+            }
+        }
+        
+        private void creditRelays(int slot, int relayMask, long millis) {
+            if (millis <= 0 || relayMask == 0) {
+                return;
+            }
+            for (int relay = 0; relay < EnvironmentalData.RELAY_COUNT; relay++) {
+                if ((relayMask & (1 << relay)) != 0) {
+                    relayOnMillis[slot * EnvironmentalData.RELAY_COUNT + relay] += millis;
+                }
+            }
+        }
+        
+        long bucketStartOf(long timestamp) {
+            return localStartOf(timestamp, bucketMillis, zone);
+        }
+        
+        private long nextBucketStart(long timestamp) {
+            return localBucketStart(localBucket(timestamp, bucketMillis, zone) + 1, bucketMillis, zone);
+        }
+        
+        boolean covers(long timestamp) {
+            synchronized (this) {
+                return size > 0 && bucketStarts[head] <= bucketStartOf(timestamp);
+            }
+        }
+        
+        public long getBucketMillis() {
+            return bucketMillis;
+        }
+        
+        public boolean hasSketches() {
+            return temperatureSketches != null;
+        }
+        
+        // Merges the sketches of every bucket overlapping [from, to) into the given sketch
+        public synchronized void mergeSketches(long from, long to, boolean temperature, QuantileSketch into) {
+            if (temperatureSketches == null || to <= from) {
+                return;
+            }
+            QuantileSketch[] sketches = temperature ? temperatureSketches : humiditySketches;
+            int end = indexOfTime(to);
+            if (end < size && bucketStarts[physical(end)] < to) {
+                end++; // Bucket containing 'to' starts inside the range
+            }
+            for (int i = indexOfTime(from); i < end; i++) {
+                into.merge(sketches[physical(i)]);
+            }
+        }
+        
+        public synchronized int size() {
+            return size;
+        }
+        
+        // First logical bucket whose start is >= bucketStartOf(timestamp), or size() if none
+        public synchronized int indexOfTime(long timestamp) {
+            long target = bucketStartOf(timestamp);
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (bucketStarts[physical(mid)] < target) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+        
+        // Logical index 0 is the oldest bucket still held by this tier
+        public synchronized long bucketStartAt(int index) {
+            return bucketStarts[physical(index)];
+        }
+        
+        public synchronized int countAt(int index) {
+            return counts[physical(index)];
+        }
+        
+        public synchronized double temperatureMinAt(int index) {
+            int slot = physical(index);
+            return temperatureCounts[slot] > 0 ? temperatureMins[slot] : Double.NaN;
+        }
+        
+        public synchronized double temperatureMaxAt(int index) {
+            int slot = physical(index);
+            return temperatureCounts[slot] > 0 ? temperatureMaxs[slot] : Double.NaN;
+        }
+        
+        public synchronized double temperatureMeanAt(int index) {
+            int slot = physical(index);
+            return temperatureCounts[slot] > 0 ? temperatureSums[slot] / temperatureCounts[slot] : Double.NaN;
+        }
+        
+        public synchronized double temperatureLastAt(int index) {
+            return temperatureLasts[physical(index)];
+        }
+        
+        public synchronized double humidityMinAt(int index) {
+            int slot = physical(index);
+            return humidityCounts[slot] > 0 ? humidityMins[slot] : Double.NaN;
+        }
+        
+        public synchronized double humidityMaxAt(int index) {
+            int slot = physical(index);
+            return humidityCounts[slot] > 0 ? humidityMaxs[slot] : Double.NaN;
+        }
+        
+        public synchronized double humidityMeanAt(int index) {
+            int slot = physical(index);
+            return humidityCounts[slot] > 0 ? humiditySums[slot] / humidityCounts[slot] : Double.NaN;
+        }
+        
+        public synchronized double humidityLastAt(int index) {
+            return humidityLasts[physical(index)];
+        }
+        
+        // relay is one of the EnvironmentalData.RELAY_* masks
+        public synchronized long relayOnMillisAt(int index, int relay) {
+            return relayOnMillis[physical(index) * EnvironmentalData.RELAY_COUNT + Integer.numberOfTrailingZeros(relay)];
+        }
+        
+        private int physical(int index) {
+            int slot = head + index;
+            return slot >= capacity ? slot - capacity : slot;
+        }
+    }
+} 
\ No newline at end of file
@@ -0,0 +1,192 @@
+package com.mushroomtech.app;
+
+// Mean / min / max / stddev of temperature and humidity over a trailing time window.
+// Welford-style running mean and squared deviations, updated as samples enter and leave,
+// give mean and variance; monotonic deques give min and max. Every update
+// is amortised O(1) and works on preallocated arrays only.
+public class SlidingWindowStats {
+    
+    private final long windowMillis;
+    private final int capacity;
+    private final long[] timestamps;
+    private final Channel temperature;
+    private final Channel humidity;
+    
+    // Samples are numbered by sequence; sample n lives in slot n % capacity
+    private long first;
+    private long next;
+    
+    public SlidingWindowStats(long windowMillis, int capacity) {
+        this.windowMillis = windowMillis;
+        this.capacity = capacity;
+        this.timestamps = new long[capacity];
+        this.temperature = new Channel(capacity);
+        this.humidity = new Channel(capacity);
+    }
+    
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+    
+    public synchronized void add(long timestamp, double temperatureValue, double humidityValue) {
+        evictBefore(timestamp - windowMillis);
+        if (next - first == capacity) {
+            // Samples are arriving faster than the window was sized for
+            evictOldest();
+        }
+        int slot = (int) (next % capacity);
+        timestamps[slot] = timestamp;
+        temperature.add(next, slot, temperatureValue);
+        humidity.add(next, slot, humidityValue);
+        next++;
+    }
+    
+    // Drops samples that fell out of the window without a new reading arriving
+    public synchronized void advanceTo(long now) {
+        evictBefore(now - windowMillis);
+    }
+    
+    public synchronized int getSampleCount() {
+        return (int) (next - first);
+    }
+    
+    public synchronized double getTemperatureMean() {
+        return temperature.mean();
+    }
+    
+    public synchronized double getTemperatureMin() {
+        return temperature.min();
+    }
+    
+    public synchronized double getTemperatureMax() {
+        return temperature.max();
+    }
+    
+    public synchronized double getTemperatureStdDev() {
+        return temperature.stdDev();
+    }
+    
+    public synchronized double getHumidityMean() {
+        return humidity.mean();
+    }
+    
+    public synchronized double getHumidityMin() {
+        return humidity.min();
+    }
+    
+    public synchronized double getHumidityMax() {
+        return humidity.max();
+    }
+    
+    public synchronized double getHumidityStdDev() {
+        return humidity.stdDev();
+    }
+    
+    private void evictBefore(long cutoff) {
+        while (first < next && timestamps[(int) (first % capacity)] < cutoff) {
+            evictOldest();
+        }
+    }
+    
+    private void evictOldest() {
+        int slot = (int) (first % capacity);
+        temperature.remove(first, slot);
+        humidity.remove(first, slot);
+        first++;
+    }
+    
+    private static class Channel {
+        private final int capacity;
+        private final double[] values;
+        // Monotonic deques of sample sequence numbers: values increasing (min) / decreasing (max)
+        private final long[] minDeque;
+        private final long[] maxDeque;
+        private int minHead;
+        private int minSize;
+        private int maxHead;
+        private int maxSize;
+        private int count;
+        private double mean;
+        // Sum of squared deviations from the mean; unlike sumSq/n - mean^2 it does not
+        // cancel catastrophically when the spread is tiny next to the values
+        private double m2;
+        
+        Channel(int capacity) {
+            this.capacity = capacity;
+            this.values = new double[capacity];
+            this.minDeque = new long[capacity];
+            this.maxDeque = new long[capacity];
+        }
+        
+        void add(long sequence, int slot, double value) {
+            values[slot] = value;
+            if (Double.isNaN(value)) {
+                return; // Dropouts do not count towards the window statistics
+            }
+            count++;
+            double delta = value - mean;
+            mean += delta / count;
+            m2 += delta * (value - mean);
+            
+            while (minSize > 0 && valueOf(minDeque[(minHead + minSize - 1) % capacity]) >= value) {
+                minSize--;
+            }
+            minDeque[(minHead + minSize) % capacity] = sequence;
+            minSize++;
+            
+            while (maxSize > 0 && valueOf(maxDeque[(maxHead + maxSize - 1) % capacity]) <= value) {
+                maxSize--;
+            }
+            maxDeque[(maxHead + maxSize) % capacity] = sequence;
+            maxSize++;
+        }
+        
+        void remove(long sequence, int slot) {
+            double value = values[slot];
+            if (Double.isNaN(value)) {
+                return;
+            }
+            count--;
+            if (count == 0) {
+                // Reset instead of subtracting to stop rounding error from accumulating
+                mean = 0;
+                m2 = 0;
+            } else {
+                double delta = value - mean;
+                mean -= delta / count;
+                m2 = Math.max(0, m2 - delta * (value - mean));
+            }
+            if (minSize > 0 && minDeque[minHead] == sequence) {
+                minHead = (minHead + 1) % capacity;
+                minSize--;
+            }
+            if (maxSize > 0 && maxDeque[maxHead] == sequence) {
+                maxHead = (maxHead + 1) % capacity;
+                maxSize--;
+            }
+        }
+        
+        double mean() {
+            return count > 0 ? mean : Double.NaN;
+        }
+        
+        double min() {
+            return minSize > 0 ? valueOf(minDeque[minHead]) : Double.NaN;
+        }
+        
+        double max() {
+            return maxSize > 0 ? valueOf(maxDeque[maxHead]) : Double.NaN;
+        }
+        
+        double stdDev() {
+            if (count == 0) {
+                return Double.NaN;
+            }
+            return Math.sqrt(m2 / count);
+        }
+        
+        private double valueOf(long sequence) {
+            return values[(int) (sequence % capacity)];
+        }
+    }
+} 
\ No newline at end of file
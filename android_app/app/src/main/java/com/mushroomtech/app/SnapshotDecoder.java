@@ -0,0 +1,239 @@
+package com.mushroomtech.app;
+
+import com.google.firebase.database.DataSnapshot;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONObject;
+
+// Decoder compiled from a ChannelRegistry. Every channel path is folded into one trie of key
+// segments, so decoding visits each child of the snapshot once, looks its key up in a single
+// map, and skips subtrees no channel asks for. The same trie serves Firebase snapshots and
+// the Pi's REST JSON.
+public class SnapshotDecoder {
+    
+    private final SensorChannel[] channels;
+    private final Node root = new Node();
+    
+    SnapshotDecoder(SensorChannel[] channels) {
+        this.channels = channels;
+        for (int channel = 0; channel < channels.length; channel++) {
+            for (int source = 0; source < channels[channel].pathCount(); source++) {
+                Node node = root;
+                for (String key : channels[channel].pathAt(source).split("/")) {
+                    node = node.child(key);
+                }
+                if (node.channel >= 0) {
+                    throw new IllegalArgumentException("Path " + channels[channel].pathAt(source)
+                            + " used by " + channels[node.channel].getName() + " and " + channels[channel].getName());
+                }
+                node.channel = channel;
+                node.source = (byte) source;
+                node.type = channels[channel].getType();
+                node.min = channels[channel].getMin();
+                node.max = channels[channel].getMax();
+            }
+        }
+        root.freeze();
+    }
+    
+    public int size() {
+        return channels.length;
+    }
+    
+    public SensorRecord decode(DataSnapshot snapshot) {
+        SensorRecord record = new SensorRecord(channels);
+        walk(snapshot, root, record);
+        return record;
+    }
+    
+    public SensorRecord decode(JSONObject json) {
+        SensorRecord record = new SensorRecord(channels);
+        walk(json, root, record);
+        return record;
+    }
+    
+    // Top-level nodes holding at least one channel, e.g. sensor_data or relay_status
+    public List<String> parents() {
+        return new ArrayList<>(root.children.keySet());
+    }
+    
+    // Channel stored at parent/key, or -1 when nothing decodes it
+    public int channelOf(String parent, String key) {
+        Node node = leaf(parent, key);
+        return node != null ? node.channel : -1;
+    }
+    
+    // Applies one child of a top-level node to a live record, for ChildEventListener updates.
+    // Returns whether the channel's decoded value changed.
+    boolean applyChild(String parent, DataSnapshot child, SensorRecord record) {
+        Node node = leaf(parent, child.getKey());
+        if (node == null) {
+            return false;
+        }
+        int channel = node.channel;
+        double previous = record.values[channel];
+        String previousText = record.texts[channel];
+        if (node.source == record.sources[channel]) {
+            // Same path rewritten; let store() accept it again
+            record.sources[channel] = SensorRecord.NOT_SET;
+        }
+        store(record, node, child.getValue());
+        if (record.sources[channel] == SensorRecord.NOT_SET) {
+            record.values[channel] = Double.NaN;
+            record.texts[channel] = null;
+        }
+        return Double.compare(previous, record.values[channel]) != 0
+                || (previousText == null ? record.texts[channel] != null : !previousText.equals(record.texts[channel]));
+    }
+    
+    // Clears a removed child's channel unless a higher-priority path still supplies it.
+    // Returns whether a value went away.
+    boolean removeChild(String parent, String key, SensorRecord record) {
+        Node node = leaf(parent, key);
+        if (node == null || record.sources[node.channel] != node.source) {
+            return false;
+        }
+        int channel = node.channel;
+        boolean had = record.has(channel);
+        record.values[channel] = Double.NaN;
+        record.texts[channel] = null;
+        record.sources[channel] = SensorRecord.NOT_SET;
+        return had;
+    }
+    
+    SensorRecord newRecord() {
+        return new SensorRecord(channels);
+    }
+    
+    private Node leaf(String parent, String key) {
+        Node node = root.children.get(parent);
+        node = node != null ? node.children.get(key) : null;
+        return node != null && node.channel >= 0 ? node : null;
+    }
+    
+    private void walk(DataSnapshot snapshot, Node node, SensorRecord record) {
+        if (node.keys.length < snapshot.getChildrenCount()) {
+            // Fewer wanted keys than children (e.g. a status node that also carries logs):
+            // look each key up rather than visiting children nobody decodes
+            for (int i = 0; i < node.keys.length; i++) {
+                DataSnapshot child = snapshot.child(node.keys[i]);
+                if (child.exists()) {
+                    visit(child, node.next[i], record);
+                }
+            }
+            return;
+        }
+        for (DataSnapshot child : snapshot.getChildren()) {
+            Node next = node.children.get(child.getKey());
+            if (next != null) {
+                visit(child, next, record);
+            }
+        }
+    }
+    
+    private void visit(DataSnapshot child, Node node, SensorRecord record) {
+        if (node.channel >= 0) {
+            // Raw getValue() hands back the boxed value already in the tree; getValue(Class)
+            // would run it through Firebase's class mapper on every update
+            store(record, node, child.getValue());
+        } else if (node.keys.length > 0) {
+            walk(child, node, record);
+        }
+    }
+    
+    private void walk(JSONObject json, Node node, SensorRecord record) {
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Node next = node.children.get(key);
+            if (next == null) {
+                continue;
+            }
+            Object value = json.opt(key);
+            if (next.channel >= 0) {
+                store(record, next, value == JSONObject.NULL ? null : value);
+            } else if (value instanceof JSONObject && next.keys.length > 0) {
+                walk((JSONObject) value, next, record);
+            }
+        }
+    }
+    
+    private void store(SensorRecord record, Node node, Object value) {
+        int channel = node.channel;
+        if (value == null || node.source > record.sources[channel]) {
+            return;
+        }
+        double number = Double.NaN;
+        if (value instanceof Number) {
+            number = ((Number) value).doubleValue();
+        } else if (value instanceof Boolean) {
+            number = (Boolean) value ? 1 : 0;
+        } else if (value instanceof String && node.type != SensorChannel.TYPE_TEXT) {
+            String text = (String) value;
+            if (node.type == SensorChannel.TYPE_FLAG) {
+                number = "true".equalsIgnoreCase(text) || "ON".equalsIgnoreCase(text) ? 1 : 0;
+            } else {
+                try {
+                    number = Double.parseDouble(text);
+                } catch (NumberFormatException e) {
+                    number = Double.NaN;
+                }
+            }
+        }
+        
+        switch (node.type) {
+            case SensorChannel.TYPE_FLAG:
+                number = Double.isNaN(number) ? Double.NaN : (number != 0 ? 1 : 0);
+                break;
+            case SensorChannel.TYPE_TEXT:
+                record.texts[channel] = value.toString();
+                break;
+            default:
+                // Out-of-range values are sensor glitches, treated like dropouts
+                if (number < node.min || number > node.max) {
+                    number = Double.NaN;
+                }
+                break;
+        }
+        if (Double.isNaN(number) && node.type != SensorChannel.TYPE_TEXT) {
+            // Rejected values leave the channel to a fallback path
+            return;
+        }
+        record.values[channel] = number;
+        record.sources[channel] = node.source;
+    }
+    
+    private static class Node {
+        final Map<String, Node> children = new HashMap<>();
+        // Flattened children, for probing without an iterator
+        String[] keys;
+        Node[] next;
+        int channel = -1;
+        byte source;
+        // Copied from the channel so store() needs no lookup
+        int type;
+        double min;
+        double max;
+        
+        void freeze() {
+            keys = children.keySet().toArray(new String[0]);
+            next = new Node[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                next[i] = children.get(keys[i]);
+                next[i].freeze();
+            }
+        }
+        
+        Node child(String key) {
+            Node child = children.get(key);
+            if (child == null) {
+                child = new Node();
+                children.put(key, child);
+            }
+            return child;
+        }
+    }
+} 
\ No newline at end of file
@@ -7,8 +7,6 @@ import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.TextView;
 import androidx.appcompat.app.AppCompatActivity;
-import com.google.firebase.FirebaseApp;
-import com.google.firebase.database.FirebaseDatabase;
 import java.util.Calendar;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -28,9 +26,6 @@ public class SplashActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_splash);
         
-        // Initialize Firebase first
-        initializeFirebase();
-        
         initializeViews();
         setupExecutor();
         displayGreeting();
@@ -44,16 +39,6 @@ public class SplashActivity extends AppCompatActivity {
         }, 8000);
     }
     
-    private void initializeFirebase() {
-        // Initialize Firebase if not already done
-        if (FirebaseApp.getApps(this).isEmpty()) {
-            FirebaseApp.initializeApp(this);
-        }
-        
-        // Enable offline persistence
-        FirebaseDatabase.getInstance().setPersistenceEnabled(true);
-    }
-    
     private void initializeViews() {
         greetingText = findViewById(R.id.greetingText);
         statusText = findViewById(R.id.statusText);
@@ -66,7 +51,7 @@ public class SplashActivity extends AppCompatActivity {
     private void setupExecutor() {
         executorService = Executors.newFixedThreadPool(2);
         mainHandler = new Handler(getMainLooper());
-        firebaseApiService = new FirebaseApiService();
+        firebaseApiService = MushroomTechApp.from(this).getFirebaseApiService();
     }
     
     private void displayGreeting() {
@@ -139,24 +124,34 @@ public class SplashActivity extends AppCompatActivity {
         status.append("☁️ Connected to Firebase!\n\n");
         
         // Temperature analysis
-        status.append("🌡️ Temperature: ").append(String.format("%.1f°C", data.temperature));
-        if (data.temperature < 25) {
-            status.append(" (Low - Heater activated)");
-        } else if (data.temperature > 28) {
-            status.append(" (High - Heater deactivated)");
+        status.append("🌡️ Temperature: ");
+        if (Double.isNaN(data.temperature)) {
+            status.append("-- (Sensor not reporting)");
         } else {
-            status.append(" (Optimal)");
+            status.append(String.format("%.1f°C", data.temperature));
+            if (data.temperature < 25) {
+                status.append(" (Low - Heater activated)");
+            } else if (data.temperature > 28) {
+                status.append(" (High - Heater deactivated)");
+            } else {
+                status.append(" (Optimal)");
+            }
         }
         status.append("\n\n");
         
         // Humidity analysis
-        status.append("💧 Humidity: ").append(String.format("%.1f%%", data.humidity));
-        if (data.humidity < 60) {
-            status.append(" (Low - Humidifier activated)");
-        } else if (data.humidity > 80) {
-            status.append(" (High - Humidifier deactivated)");
+        status.append("💧 Humidity: ");
+        if (Double.isNaN(data.humidity)) {
+            status.append("-- (Sensor not reporting)");
         } else {
-            status.append(" (Optimal)");
+            status.append(String.format("%.1f%%", data.humidity));
+            if (data.humidity < 60) {
+                status.append(" (Low - Humidifier activated)");
+            } else if (data.humidity > 80) {
+                status.append(" (High - Humidifier deactivated)");
+            } else {
+                status.append(" (Optimal)");
+            }
         }
         status.append("\n\n");
         
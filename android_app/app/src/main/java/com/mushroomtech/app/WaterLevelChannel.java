@@ -0,0 +1,353 @@
+package com.mushroomtech.app;
+
+// Water-level telemetry from the ESP32 tank monitor, kept in the same primitive ring form as
+// ReadingRingBuffer: level samples (raw ADC of the min and max probes plus the debounced tank
+// state) and a separate event ring of float-switch transitions, tank state changes and pump
+// triggers. Range queries are binary searches over the timestamp columns.
+public class WaterLevelChannel {
+    
+    // 3 days of the ESP32's 5-second status updates
+    public static final int DEFAULT_CAPACITY = 3 * 24 * 60 * 12;
+    public static final int DEFAULT_EVENT_CAPACITY = 4096;
+    
+    // Tank states, as in the ESP32 sketch's WaterState enum
+    public static final int STATE_UNKNOWN = 0;
+    public static final int STATE_LOW = 1;
+    public static final int STATE_FILLING = 2;
+    public static final int STATE_FULL = 3;
+    public static final int STATE_ERROR = 4;
+    
+    public static final int PUMP_NONE = 0;
+    public static final int PUMP_ON = 1;
+    public static final int PUMP_OFF = 2;
+    
+    // Event kinds; the value is the new state, 1/0 for wet/dry, or the pump command
+    public static final int EVENT_STATE_CHANGE = 0;
+    public static final int EVENT_MIN_PROBE = 1;
+    public static final int EVENT_MAX_PROBE = 2;
+    public static final int EVENT_PUMP_TRIGGER = 3;
+    
+    // Same threshold as the sketch: a raw reading below this means the probe is in water
+    public static final int WET_THRESHOLD = 1000;
+    
+    // A sample stops counting towards state durations after this long without an update
+    private static final long MAX_SAMPLE_GAP = SensorRollups.MINUTE;
+    
+    private final int capacity;
+    private final long[] timestamps;
+    private final short[] minSensors;
+    private final short[] maxSensors;
+    private final byte[] states;
+    private int head;
+    private int size;
+    
+    private final int eventCapacity;
+    private final long[] eventTimes;
+    private final byte[] eventKinds;
+    private final byte[] eventValues;
+    private int eventHead;
+    private int eventSize;
+    private long lastPumpStamp = -1;
+    private int lastPumpCommand = PUMP_NONE;
+    
+    public WaterLevelChannel() {
+        this(DEFAULT_CAPACITY, DEFAULT_EVENT_CAPACITY);
+    }
+    
+    public WaterLevelChannel(int capacity, int eventCapacity) {
+        if (capacity <= 0 || eventCapacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity + ", " + eventCapacity);
+        }
+        this.capacity = capacity;
+        this.timestamps = new long[capacity];
+        this.minSensors = new short[capacity];
+        this.maxSensors = new short[capacity];
+        this.states = new byte[capacity];
+        this.eventCapacity = eventCapacity;
+        this.eventTimes = new long[eventCapacity];
+        this.eventKinds = new byte[eventCapacity];
+        this.eventValues = new byte[eventCapacity];
+    }
+    
+    public static int parseState(String text) {
+        if ("WATER_LOW".equals(text)) {
+            return STATE_LOW;
+        } else if ("WATER_FILLING".equals(text)) {
+            return STATE_FILLING;
+        } else if ("WATER_FULL".equals(text)) {
+            return STATE_FULL;
+        } else if ("WATER_ERROR".equals(text)) {
+            return STATE_ERROR;
+        }
+        return STATE_UNKNOWN;
+    }
+    
+    public static String stateName(int state) {
+        switch (state) {
+            case STATE_LOW:
+                return "LOW";
+            case STATE_FILLING:
+                return "FILLING";
+            case STATE_FULL:
+                return "FULL";
+            case STATE_ERROR:
+                return "ERROR";
+            default:
+                return "UNKNOWN";
+        }
+    }
+    
+    public static int parsePumpCommand(String text) {
+        if ("ON".equals(text)) {
+            return PUMP_ON;
+        } else if ("OFF".equals(text)) {
+            return PUMP_OFF;
+        }
+        return PUMP_NONE;
+    }
+    
+    // Raw sensor values are 12-bit ADC readings, -1 when missing. Probe and state changes
+    // against the previous sample are recorded as events. Returns false for out-of-order samples.
+    public synchronized boolean addSample(long timestamp, int minSensor, int maxSensor, int state) {
+        if (size > 0) {
+            int last = physical(size - 1);
+            if (timestamp < timestamps[last]) {
+                return false;
+            }
+            int previousState = states[last];
+            if (state != previousState && state != STATE_UNKNOWN) {
+                addEvent(timestamp, EVENT_STATE_CHANGE, state);
+            }
+            if (minSensor >= 0 && minSensors[last] >= 0 && isWet(minSensor) != isWet(minSensors[last])) {
+                addEvent(timestamp, EVENT_MIN_PROBE, isWet(minSensor) ? 1 : 0);
+            }
+            if (maxSensor >= 0 && maxSensors[last] >= 0 && isWet(maxSensor) != isWet(maxSensors[last])) {
+                addEvent(timestamp, EVENT_MAX_PROBE, isWet(maxSensor) ? 1 : 0);
+            }
+        }
+        
+        int slot;
+        if (size < capacity) {
+            slot = physical(size);
+            size++;
+        } else {
+            slot = head;
+            head = (head + 1) % capacity;
+        }
+        timestamps[slot] = timestamp;
+        minSensors[slot] = (short) minSensor;
+        maxSensors[slot] = (short) maxSensor;
+        states[slot] = (byte) state;
+        return true;
+    }
+    
+    // deviceStamp is the ESP32's own command timestamp, so a command node that is still
+    // there when a listener re-attaches is not counted twice. The sketch also publishes
+    // NONE on idle cycles and repeats ON while the tank stays low; only a switch between
+    // ON and OFF is a trigger.
+    public synchronized boolean addPumpTrigger(long timestamp, long deviceStamp, int command) {
+        if (command == PUMP_NONE || command == lastPumpCommand) {
+            return false;
+        }
+        if (deviceStamp >= 0 && deviceStamp == lastPumpStamp) {
+            return false;
+        }
+        lastPumpStamp = deviceStamp;
+        lastPumpCommand = command;
+        addEvent(timestamp, EVENT_PUMP_TRIGGER, command);
+        return true;
+    }
+    
+    public synchronized int size() {
+        return size;
+    }
+    
+    public synchronized int eventCount() {
+        return eventSize;
+    }
+    
+    public synchronized long timestampAt(int index) {
+        return timestamps[checkedPhysical(index)];
+    }
+    
+    public synchronized int minSensorAt(int index) {
+        return minSensors[checkedPhysical(index)];
+    }
+    
+    public synchronized int maxSensorAt(int index) {
+        return maxSensors[checkedPhysical(index)];
+    }
+    
+    public synchronized int stateAt(int index) {
+        return states[checkedPhysical(index)];
+    }
+    
+    // Tank state of the newest sample, STATE_UNKNOWN when empty
+    public synchronized int latestState() {
+        return size == 0 ? STATE_UNKNOWN : states[physical(size - 1)];
+    }
+    
+    // First logical index with a timestamp >= the given time, or size() if none
+    public synchronized int indexOfTime(long timestamp) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[physical(mid)] < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    // Copies samples [from, to) into the given columns; pass null to skip a column
+    public synchronized int copyRange(int from, int to, long[] timestampsOut, int[] minSensorsOut,
+                                      int[] maxSensorsOut, byte[] statesOut) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") of " + size);
+        }
+        int count = to - from;
+        int start = physical(from);
+        int firstPart = Math.min(count, capacity - start);
+        if (timestampsOut != null) {
+            System.arraycopy(timestamps, start, timestampsOut, 0, firstPart);
+            System.arraycopy(timestamps, 0, timestampsOut, firstPart, count - firstPart);
+        }
+        if (statesOut != null) {
+            System.arraycopy(states, start, statesOut, 0, firstPart);
+            System.arraycopy(states, 0, statesOut, firstPart, count - firstPart);
+        }
+        for (int i = 0; i < count; i++) {
+            int slot = physical(from + i);
+            if (minSensorsOut != null) {
+                minSensorsOut[i] = minSensors[slot];
+            }
+            if (maxSensorsOut != null) {
+                maxSensorsOut[i] = maxSensors[slot];
+            }
+        }
+        return count;
+    }
+    
+    // Milliseconds of [from, to) the tank spent in the given state. Each sample holds until
+    // the next one, for at most MAX_SAMPLE_GAP.
+    public synchronized long stateMillis(int state, long from, long to) {
+        long total = 0;
+        int first = Math.max(indexOfTime(from) - 1, 0);
+        for (int i = first; i < size; i++) {
+            int slot = physical(i);
+            long start = timestamps[slot];
+            if (start >= to) {
+                break;
+            }
+            if (states[slot] != state) {
+                continue;
+            }
+            long end = start + MAX_SAMPLE_GAP;
+            if (i + 1 < size) {
+                end = Math.min(end, timestamps[physical(i + 1)]);
+            }
+            total += Math.max(0, Math.min(end, to) - Math.max(start, from));
+        }
+        return total;
+    }
+    
+    // Events of one kind with from <= time < to; pass -1 to count every kind
+    public synchronized int eventCount(int kind, long from, long to) {
+        int count = 0;
+        for (int i = eventIndexOfTime(from); i < eventSize; i++) {
+            int slot = eventPhysical(i);
+            if (eventTimes[slot] >= to) {
+                break;
+            }
+            if (kind < 0 || eventKinds[slot] == kind) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    public synchronized Events events(long from, long to) {
+        int first = eventIndexOfTime(from);
+        int last = eventIndexOfTime(to);
+        Events events = new Events(last - first);
+        for (int i = first; i < last; i++) {
+            int slot = eventPhysical(i);
+            events.times[i - first] = eventTimes[slot];
+            events.kinds[i - first] = eventKinds[slot];
+            events.values[i - first] = eventValues[slot];
+        }
+        return events;
+    }
+    
+    public static class Events {
+        public final long[] times;
+        public final byte[] kinds;
+        public final byte[] values;
+        
+        Events(int size) {
+            times = new long[size];
+            kinds = new byte[size];
+            values = new byte[size];
+        }
+        
+        public int size() {
+            return times.length;
+        }
+    }
+    
+    private void addEvent(long timestamp, int kind, int value) {
+        // Pump commands arrive on a separate listener and may lag the status stream slightly
+        if (eventSize > 0) {
+            timestamp = Math.max(timestamp, eventTimes[eventPhysical(eventSize - 1)]);
+        }
+        int slot;
+        if (eventSize < eventCapacity) {
+            slot = eventPhysical(eventSize);
+            eventSize++;
+        } else {
+            slot = eventHead;
+            eventHead = (eventHead + 1) % eventCapacity;
+        }
+        eventTimes[slot] = timestamp;
+        eventKinds[slot] = (byte) kind;
+        eventValues[slot] = (byte) value;
+    }
+    
+    private int eventIndexOfTime(long timestamp) {
+        int low = 0;
+        int high = eventSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (eventTimes[eventPhysical(mid)] < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    private static boolean isWet(int raw) {
+        return raw < WET_THRESHOLD;
+    }
+    
+    private int physical(int index) {
+        int slot = head + index;
+        return slot >= capacity ? slot - capacity : slot;
+    }
+    
+    private int eventPhysical(int index) {
+        int slot = eventHead + index;
+        return slot >= eventCapacity ? slot - eventCapacity : slot;
+    }
+    
+    private int checkedPhysical(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + size);
+        }
+        return physical(index);
+    }
+} 
\ No newline at end of file
@@ -0,0 +1,104 @@
+package com.google.firebase.database;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// In-memory DataSnapshot over nested maps, for JVM tests. It lives in Firebase's package
+// because DataSnapshot's constructor is package-private. Counts how its children are
+// reached, so tests can tell probing (child) from walking (getChildren).
+public class FakeSnapshot extends DataSnapshot {
+    
+    private final String key;
+    private final Object value;
+    public int childLookups;
+    public int childIterations;
+    
+    public FakeSnapshot(String key, Object value) {
+        super(null, null);
+        this.key = key;
+        this.value = value;
+    }
+    
+    // Builds a node from alternating keys and values; values may be nested nodes
+    public static Map<String, Object> node(Object... keysAndValues) {
+        Map<String, Object> node = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            node.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return node;
+    }
+    
+    @Override
+    public DataSnapshot child(String path) {
+        childLookups++;
+        Object current = value;
+        for (String segment : path.split("/")) {
+            current = current instanceof Map ? ((Map<?, ?>) current).get(segment) : null;
+        }
+        int slash = path.lastIndexOf('/');
+        return new FakeSnapshot(slash < 0 ? path : path.substring(slash + 1), current);
+    }
+    
+    @Override
+    public boolean exists() {
+        return value != null;
+    }
+    
+    @Override
+    public boolean hasChild(String path) {
+        return child(path).exists();
+    }
+    
+    @Override
+    public boolean hasChildren() {
+        return getChildrenCount() > 0;
+    }
+    
+    @Override
+    public long getChildrenCount() {
+        return value instanceof Map ? ((Map<?, ?>) value).size() : 0;
+    }
+    
+    @Override
+    public Iterable<DataSnapshot> getChildren() {
+        childIterations++;
+        List<DataSnapshot> children = new ArrayList<>();
+        if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                children.add(new FakeSnapshot((String) entry.getKey(), entry.getValue()));
+            }
+        }
+        return children;
+    }
+    
+    @Override
+    public String getKey() {
+        return key;
+    }
+    
+    @Override
+    public Object getValue() {
+        return value;
+    }
+    
+    // Enough of Firebase's conversions for the primitive wrappers: numbers widen or narrow,
+    // anything else that does not fit fails the way the class mapper does
+    @Override
+    public <T> T getValue(Class<T> valueType) {
+        if (value == null) {
+            return null;
+        }
+        if (valueType == Double.class && value instanceof Number) {
+            return valueType.cast(((Number) value).doubleValue());
+        }
+        if (valueType == Long.class && value instanceof Number) {
+            return valueType.cast(((Number) value).longValue());
+        }
+        if (valueType.isInstance(value)) {
+            return valueType.cast(value);
+        }
+        throw new DatabaseException("Failed to convert " + value.getClass().getName() + " to " + valueType.getName());
+    }
+} 
\ No newline at end of file
@@ -0,0 +1,130 @@
+package com.mushroomtech.app;
+
+import static com.google.firebase.database.FakeSnapshot.node;
+import static org.junit.Assert.assertEquals;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.FakeSnapshot;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+// Rough timing of SnapshotDecoder against the parser it replaced, over the same snapshot.
+// The decoder fills every registered channel where the baseline read six fields, and
+// FakeSnapshot's getValue(Class) is a cast where Firebase runs its class mapper, so the
+// numbers compare lookups and traversal only. Checks both agree on the fields the baseline
+// knew and logs the timings without asserting on them. Wall-clock timing is noisy, so it
+// only runs when asked for: ./gradlew test -Pbenchmark
+public class SnapshotDecoderBenchmarkTest {
+    
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 200000;
+    private static final Logger LOG = Logger.getLogger(SnapshotDecoderBenchmarkTest.class.getName());
+    
+    private final SnapshotDecoder decoder = ChannelRegistry.createDefault().compile();
+    
+    @Before
+    public void requireBenchmarkFlag() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+    }
+    
+    // Uses relay_states, the only relay node the baseline parser read
+    private static Map<String, Object> status() {
+        return node(
+                "sensor_data", node("temperature", 21.5, "humidity", 85.0, "last_reading", "2024-05-01 10:00:00"),
+                "relay_states", node("heater", true, "humidifier", false, "water_pump", false, "aquarium_pump", true),
+                "thresholds", node("temp_min", 18.0, "temp_max", 24.0, "humidity_min", 80.0, "humidity_max", 95.0),
+                "esp32_status", node("connected", true, "last_contact", "2024-05-01 09:59:30"),
+                "system_info", node("cpu_temperature", 48.5, "uptime", 86400L),
+                "timestamp", "2024-05-01T10:00:00");
+    }
+    
+    // FirebaseApiService.parseEnvironmentalData as it was before SnapshotDecoder, unchanged
+    private EnvironmentalData parseEnvironmentalData(DataSnapshot dataSnapshot) {
+        EnvironmentalData data = new EnvironmentalData();
+        
+        // Parse sensor data
+        DataSnapshot sensorData = dataSnapshot.child("sensor_data");
+        if (sensorData.exists()) {
+            Double temp = sensorData.child("temperature").getValue(Double.class);
+            Double humidity = sensorData.child("humidity").getValue(Double.class);
+            
+            data.temperature = temp != null ? temp : 0.0;
+            data.humidity = humidity != null ? humidity : 0.0;
+        }
+        
+        // Parse relay states
+        DataSnapshot relayStates = dataSnapshot.child("relay_states");
+        if (relayStates.exists()) {
+            Boolean heater = relayStates.child("heater").getValue(Boolean.class);
+            Boolean humidifier = relayStates.child("humidifier").getValue(Boolean.class);
+            Boolean aquarium = relayStates.child("aquarium_pump").getValue(Boolean.class);
+            
+            data.heaterStatus = heater != null && heater;
+            data.humidifierStatus = humidifier != null && humidifier;
+            data.aquariumPumpStatus = aquarium != null && aquarium;
+        }
+        
+        // Parse ESP32 connection status
+        DataSnapshot esp32Status = dataSnapshot.child("esp32_status");
+        if (esp32Status.exists()) {
+            Boolean connected = esp32Status.child("connected").getValue(Boolean.class);
+            data.esp32Connected = connected != null && connected;
+        }
+        
+        data.timestamp = System.currentTimeMillis();
+        
+        return data;
+    }
+    
+    private EnvironmentalData decode(DataSnapshot snapshot) {
+        return EnvironmentalData.fromRecord(decoder.decode(snapshot));
+    }
+    
+    @Test
+    public void decodeWalkModeAgainstBaseline() {
+        compare("walk", new FakeSnapshot("rpi_1", status()));
+    }
+    
+    @Test
+    public void decodeProbeModeAgainstBaseline() {
+        Map<String, Object> status = status();
+        for (int i = 0; i < 50; i++) {
+            status.put("log_" + i, node("message", "entry " + i));
+        }
+        compare("probe", new FakeSnapshot("rpi_1", status));
+    }
+    
+    private void compare(String mode, DataSnapshot snapshot) {
+        EnvironmentalData expected = parseEnvironmentalData(snapshot);
+        EnvironmentalData actual = decode(snapshot);
+        assertEquals(expected.temperature, actual.temperature, 0);
+        assertEquals(expected.humidity, actual.humidity, 0);
+        assertEquals(expected.heaterStatus, actual.heaterStatus);
+        assertEquals(expected.humidifierStatus, actual.humidifierStatus);
+        assertEquals(expected.aquariumPumpStatus, actual.aquariumPumpStatus);
+        assertEquals(expected.esp32Connected, actual.esp32Connected);
+        
+        double sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += parseEnvironmentalData(snapshot).temperature;
+            sink += decode(snapshot).temperature;
+        }
+        long started = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += parseEnvironmentalData(snapshot).temperature;
+        }
+        long baselineNanos = System.nanoTime() - started;
+        started = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += decode(snapshot).temperature;
+        }
+        long decoderNanos = System.nanoTime() - started;
+        
+        LOG.info(String.format(Locale.US, "SnapshotDecoder %s mode: %.0f ns/decode, baseline %.0f ns/decode, checksum %.0f",
+                mode, (double) decoderNanos / ITERATIONS, (double) baselineNanos / ITERATIONS, sink));
+    }
+} 
\ No newline at end of file
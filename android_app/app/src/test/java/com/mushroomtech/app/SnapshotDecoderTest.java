@@ -0,0 +1,199 @@
+package com.mushroomtech.app;
+
+import static com.google.firebase.database.FakeSnapshot.node;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.firebase.database.FakeSnapshot;
+import java.util.Map;
+import org.junit.Test;
+
+public class SnapshotDecoderTest {
+    
+    private final SnapshotDecoder decoder = ChannelRegistry.createDefault().compile();
+    
+    private static Map<String, Object> status() {
+        return node(
+                "sensor_data", node("temperature", 21.5, "humidity", 85L, "last_reading", "2024-05-01 10:00:00"),
+                "relay_status", node("heater", true, "humidifier", false, "water_pump", "ON", "aquarium_pump", "off"),
+                "thresholds", node("temp_min", 18L, "temp_max", 24.0, "humidity_min", "80", "humidity_max", 95.0),
+                "timestamp", "2024-05-01T10:00:00");
+    }
+    
+    private static void assertStatus(SensorRecord record) {
+        assertEquals(21.5, record.getValue(ChannelRegistry.TEMPERATURE), 0);
+        assertEquals(85, record.getValue(ChannelRegistry.HUMIDITY), 0);
+        assertEquals("2024-05-01 10:00:00", record.getText(ChannelRegistry.LAST_READING));
+        assertTrue(record.getFlag(ChannelRegistry.HEATER));
+        assertFalse(record.getFlag(ChannelRegistry.HUMIDIFIER));
+        assertTrue(record.getFlag(ChannelRegistry.WATER_PUMP));
+        assertFalse(record.getFlag(ChannelRegistry.AQUARIUM_PUMP));
+        assertEquals(18, record.getValue(ChannelRegistry.TEMP_MIN), 0);
+        assertEquals(24, record.getValue(ChannelRegistry.TEMP_MAX), 0);
+        assertEquals(80, record.getValue(ChannelRegistry.HUMIDITY_MIN), 0);
+        assertEquals(95, record.getValue(ChannelRegistry.HUMIDITY_MAX), 0);
+        assertFalse(record.has(ChannelRegistry.CO2));
+    }
+    
+    @Test
+    public void decodeWalksNodeWithFewChildren() {
+        FakeSnapshot snapshot = new FakeSnapshot("rpi_1", status());
+        
+        SensorRecord record = decoder.decode(snapshot);
+        
+        assertStatus(record);
+        assertEquals(1, snapshot.childIterations);
+        assertEquals(0, snapshot.childLookups);
+    }
+    
+    @Test
+    public void decodeProbesNodeWithManyChildren() {
+        Map<String, Object> status = status();
+        for (int i = 0; i < 50; i++) {
+            status.put("log_" + i, node("message", "entry " + i));
+        }
+        FakeSnapshot snapshot = new FakeSnapshot("rpi_1", status);
+        
+        SensorRecord record = decoder.decode(snapshot);
+        
+        assertStatus(record);
+        assertEquals(0, snapshot.childIterations);
+        assertEquals(decoder.parents().size(), snapshot.childLookups);
+    }
+    
+    @Test
+    public void relayStatesIsUsedWhenRelayStatusIsMissing() {
+        SensorRecord record = decoder.decode(new FakeSnapshot("rpi_1", node(
+                "relay_states", node("heater", true, "water_pump", false))));
+        
+        assertTrue(record.getFlag(ChannelRegistry.HEATER));
+        assertTrue(record.has(ChannelRegistry.WATER_PUMP));
+        assertFalse(record.getFlag(ChannelRegistry.WATER_PUMP));
+    }
+    
+    @Test
+    public void relayStatusWinsOverRelayStatesInEitherOrder() {
+        SensorRecord statusFirst = decoder.decode(new FakeSnapshot("rpi_1", node(
+                "relay_status", node("heater", false),
+                "relay_states", node("heater", true))));
+        SensorRecord statesFirst = decoder.decode(new FakeSnapshot("rpi_1", node(
+                "relay_states", node("heater", true),
+                "relay_status", node("heater", false))));
+        
+        assertFalse(statusFirst.getFlag(ChannelRegistry.HEATER));
+        assertFalse(statesFirst.getFlag(ChannelRegistry.HEATER));
+    }
+    
+    @Test
+    public void temperatureMinIsUsedWhenTempMinIsMissing() {
+        SensorRecord record = decoder.decode(new FakeSnapshot("rpi_1", node(
+                "thresholds", node("temperature_min", 16.0, "temperature_max", 26L))));
+        
+        assertEquals(16, record.getValue(ChannelRegistry.TEMP_MIN), 0);
+        assertEquals(26, record.getValue(ChannelRegistry.TEMP_MAX), 0);
+    }
+    
+    @Test
+    public void tempMinWinsOverTemperatureMin() {
+        SensorRecord record = decoder.decode(new FakeSnapshot("rpi_1", node(
+                "thresholds", node("temperature_min", 16.0, "temp_min", 18.0))));
+        
+        assertEquals(18, record.getValue(ChannelRegistry.TEMP_MIN), 0);
+    }
+    
+    @Test
+    public void rejectedTempMinFallsBackToTemperatureMin() {
+        SensorRecord garbage = decoder.decode(new FakeSnapshot("rpi_1", node(
+                "thresholds", node("temp_min", "n/a", "temperature_min", 16.0))));
+        SensorRecord outOfRange = decoder.decode(new FakeSnapshot("rpi_1", node(
+                "thresholds", node("temperature_min", 16.0, "temp_min", 500.0))));
+        
+        assertEquals(16, garbage.getValue(ChannelRegistry.TEMP_MIN), 0);
+        assertEquals(16, outOfRange.getValue(ChannelRegistry.TEMP_MIN), 0);
+    }
+    
+    @Test
+    public void outOfRangeValuesDecodeAsNaN() {
+        SensorRecord record = decoder.decode(new FakeSnapshot("rpi_1", node(
+                "sensor_data", node("temperature", 120.0, "humidity", -5L, "co2", 400L))));
+        
+        assertTrue(Double.isNaN(record.getValue(ChannelRegistry.TEMPERATURE)));
+        assertFalse(record.has(ChannelRegistry.TEMPERATURE));
+        assertTrue(Double.isNaN(record.getValue(ChannelRegistry.HUMIDITY)));
+        assertFalse(record.has(ChannelRegistry.HUMIDITY));
+        assertEquals(400, record.getValue(ChannelRegistry.CO2), 0);
+    }
+    
+    @Test
+    public void unparseableNumbersDecodeAsNaN() {
+        SensorRecord record = decoder.decode(new FakeSnapshot("rpi_1", node(
+                "sensor_data", node("temperature", "error", "humidity", "85.5"))));
+        
+        assertFalse(record.has(ChannelRegistry.TEMPERATURE));
+        assertEquals(85.5, record.getValue(ChannelRegistry.HUMIDITY), 0);
+    }
+    
+    @Test
+    public void applyChildReportsOnlyChangedValues() {
+        SensorRecord record = decoder.newRecord();
+        
+        assertTrue(decoder.applyChild("sensor_data", new FakeSnapshot("temperature", 21.0), record));
+        assertEquals(21, record.getValue(ChannelRegistry.TEMPERATURE), 0);
+        assertFalse(decoder.applyChild("sensor_data", new FakeSnapshot("temperature", 21L), record));
+        assertTrue(decoder.applyChild("sensor_data", new FakeSnapshot("temperature", 22.5), record));
+        assertEquals(22.5, record.getValue(ChannelRegistry.TEMPERATURE), 0);
+        assertFalse(decoder.applyChild("sensor_data", new FakeSnapshot("uptime", 100L), record));
+        assertFalse(decoder.applyChild("system_info", new FakeSnapshot("uptime", 100L), record));
+    }
+    
+    @Test
+    public void applyChildClearsValueRewrittenOutOfRange() {
+        SensorRecord record = decoder.newRecord();
+        decoder.applyChild("sensor_data", new FakeSnapshot("humidity", 85.0), record);
+        
+        assertTrue(decoder.applyChild("sensor_data", new FakeSnapshot("humidity", 140.0), record));
+        
+        assertFalse(record.has(ChannelRegistry.HUMIDITY));
+    }
+    
+    @Test
+    public void applyChildKeepsPathPriority() {
+        SensorRecord record = decoder.newRecord();
+        
+        assertTrue(decoder.applyChild("relay_states", new FakeSnapshot("heater", true), record));
+        assertTrue(record.getFlag(ChannelRegistry.HEATER));
+        // The primary path takes over from the fallback...
+        assertTrue(decoder.applyChild("relay_status", new FakeSnapshot("heater", false), record));
+        assertFalse(record.getFlag(ChannelRegistry.HEATER));
+        // ...and the fallback cannot override it afterwards
+        assertFalse(decoder.applyChild("relay_states", new FakeSnapshot("heater", true), record));
+        assertFalse(record.getFlag(ChannelRegistry.HEATER));
+    }
+    
+    @Test
+    public void removeChildClearsOnlyTheSupplyingPath() {
+        SensorRecord record = decoder.newRecord();
+        decoder.applyChild("thresholds", new FakeSnapshot("temperature_min", 16.0), record);
+        decoder.applyChild("thresholds", new FakeSnapshot("temp_min", 18.0), record);
+        
+        assertFalse(decoder.removeChild("thresholds", "temperature_min", record));
+        assertEquals(18, record.getValue(ChannelRegistry.TEMP_MIN), 0);
+        assertTrue(decoder.removeChild("thresholds", "temp_min", record));
+        assertFalse(record.has(ChannelRegistry.TEMP_MIN));
+        assertFalse(decoder.removeChild("thresholds", "temp_min", record));
+        assertFalse(decoder.removeChild("thresholds", "unknown", record));
+    }
+    
+    @Test
+    public void removedFieldCanBeSuppliedAgain() {
+        SensorRecord record = decoder.newRecord();
+        decoder.applyChild("esp32_status", new FakeSnapshot("last_contact", "10:00"), record);
+        decoder.removeChild("esp32_status", "last_contact", record);
+        
+        assertNull(record.getText(ChannelRegistry.ESP32_LAST_CONTACT));
+        assertTrue(decoder.applyChild("esp32_status", new FakeSnapshot("last_contact", "10:05"), record));
+        assertEquals("10:05", record.getText(ChannelRegistry.ESP32_LAST_CONTACT));
+    }
+} 
\ No newline at end of file
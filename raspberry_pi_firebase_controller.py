@@ -248,32 +248,65 @@ class FirebaseEnvironmentalController:
             if event.data is None:
                 return
             
-            command_data = event.data
-            relay_name = command_data.get('relay', '').upper()
-            state = command_data.get('state', False)
-            command_id = command_data.get('command_id', '')
+            relay_control = self.db_ref.child('commands').child(DEVICE_ID).child('relay_control')
             
-            logger.info(f"Received relay command: {relay_name} -> {state}")
+            # Older apps write a single command straight to relay_control
+            if event.path == '/' and 'command_id' in event.data:
+                self.execute_relay_command(event.data)
+                relay_control.delete()
+                return
             
-            if relay_name in RELAY_PINS:
-                success = self.control_relay(relay_name, state)
-                
-                # Send response back to Firebase
-                response = {
-                    'command_id': command_id,
-                    'success': success,
-                    'timestamp': datetime.now().isoformat(),
-                    'device_id': DEVICE_ID
-                }
-                
-                self.db_ref.child('command_responses').child(command_id).set(response)
-                
+            # Each command sits under its own push ID: the initial event carries all of them,
+            # later ones a single new command. Push IDs sort by creation time.
+            if event.path == '/':
+                commands = event.data
+            else:
+                key = event.path.strip('/').split('/')[0]
+                commands = {key: relay_control.child(key).get()}
+            
+            for key in sorted(commands):
+                command_data = commands[key]
+                if not isinstance(command_data, dict):
+                    continue
+                self.execute_relay_command(command_data, key)
                 # Clear the command
-                self.db_ref.child('commands').child(DEVICE_ID).child('relay_control').delete()
+                relay_control.child(key).delete()
             
         except Exception as e:
             logger.error(f"Error handling relay command: {e}")
     
+    def execute_relay_command(self, command_data, key=''):
+        """Apply one relay command and answer it under command_responses"""
+        command_id = command_data.get('command_id', key)
+        
+        # Batched commands carry several relays; older apps send a single relay/state
+        relays = command_data.get('relays')
+        if relays is None:
+            relays = {command_data.get('relay', ''): command_data.get('state', False)}
+        
+        success = True
+        for relay_name, state in relays.items():
+            relay_name = relay_name.upper()
+            logger.info(f"Received relay command: {relay_name} -> {state}")
+            if relay_name not in RELAY_PINS:
+                logger.error(f"Unknown relay: {relay_name}")
+                success = False
+                continue
+            success = self.control_relay(relay_name, state) and success
+        
+        if not command_id:
+            return
+        
+        # Send response back to Firebase
+        response = {
+            'command_id': command_id,
+            'success': success,
+            'timestamp': datetime.now().isoformat(),
+            'device_id': DEVICE_ID
+        }
+        
+        self.db_ref.child('command_responses').child(command_id).set(response)
+    
     def handle_threshold_update(self, event):
         """Handle threshold update commands from Firebase"""
         try: